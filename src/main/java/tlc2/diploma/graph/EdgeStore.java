@@ -0,0 +1,32 @@
+package tlc2.diploma.graph;
+
+import java.io.Closeable;
+
+/**
+ * Storage of network edges addressed by pair index: pair {@code i} backs
+ * forward edge {@code 2 * i} and its backward twin {@code 2 * i + 1}.
+ * Closing the store releases its memory or file, the edges must not be accessed afterwards.
+ */
+interface EdgeStore extends Closeable {
+    int add(int from, int to, int capacity, boolean hasAction);
+
+    int getFrom(int id);
+
+    int getTo(int id);
+
+    int getFlow(int id);
+
+    int getCapacity(int id);
+
+    boolean hasAction(int id);
+
+    void incFlow(int id, int df);
+
+    int getFlowVolatile(int id);
+
+    boolean compareAndSetFlow(int id, int expectedFlow, int flow);
+
+    int size();
+
+    void ensureCapacity(int capacity);
+}
@@ -0,0 +1,100 @@
+package tlc2.diploma.graph;
+
+import org.eclipse.collections.impl.list.mutable.primitive.BooleanArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+class HeapEdgeStore implements EdgeStore {
+    private static final VarHandle FLOWS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final IntArrayList fromList;
+    private final IntArrayList toList;
+    // plain array instead of a list, so that flows can be updated with CAS
+    private int[] flows;
+    private final IntArrayList capacityList;
+    private final BooleanArrayList hasActionList;
+
+    public HeapEdgeStore() {
+        this.fromList = new IntArrayList();
+        this.toList = new IntArrayList();
+        this.flows = new int[16];
+        this.capacityList = new IntArrayList();
+        this.hasActionList = new BooleanArrayList();
+    }
+
+    @Override
+    public int add(int from, int to, int capacity, boolean hasAction) {
+        int id = hasActionList.size();
+        if (id == flows.length) {
+            flows = Arrays.copyOf(flows, 2 * flows.length);
+        }
+        fromList.add(from);
+        toList.add(to);
+        capacityList.add(capacity);
+        hasActionList.add(hasAction);
+        return id;
+    }
+
+    @Override
+    public int getFrom(int id) {
+        return fromList.get(id);
+    }
+
+    @Override
+    public int getTo(int id) {
+        return toList.get(id);
+    }
+
+    @Override
+    public int getFlow(int id) {
+        return flows[id];
+    }
+
+    @Override
+    public int getCapacity(int id) {
+        return capacityList.get(id);
+    }
+
+    @Override
+    public boolean hasAction(int id) {
+        return hasActionList.get(id);
+    }
+
+    @Override
+    public void incFlow(int id, int df) {
+        flows[id] += df;
+    }
+
+    @Override
+    public int getFlowVolatile(int id) {
+        return (int) FLOWS.getVolatile(flows, id);
+    }
+
+    @Override
+    public boolean compareAndSetFlow(int id, int expectedFlow, int flow) {
+        return FLOWS.compareAndSet(flows, id, expectedFlow, flow);
+    }
+
+    @Override
+    public int size() {
+        return hasActionList.size();
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        fromList.ensureCapacity(capacity);
+        toList.ensureCapacity(capacity);
+        if (capacity > flows.length) {
+            flows = Arrays.copyOf(flows, capacity);
+        }
+        capacityList.ensureCapacity(capacity);
+//        hasActionList.ensureCapacity(capacity);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,149 @@
+package tlc2.diploma.graph;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Edge store kept in a memory-mapped temporary file, so that its size is limited by disk space
+ * rather than by heap size. Paging is left to the OS page cache.
+ */
+class MappedEdgeStore implements EdgeStore {
+    // record layout: from, to, flow, capacity with hasAction flag in the sign bit
+    private static final int RECORD_SHIFT = 4;
+    private static final int FROM_OFFSET = 0;
+    private static final int TO_OFFSET = 4;
+    private static final int FLOW_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int HAS_ACTION_FLAG = Integer.MIN_VALUE;
+
+    private static final int SEGMENT_SHIFT = 22;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final long SEGMENT_BYTES = 1L << (SEGMENT_SHIFT + RECORD_SHIFT);
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private MappedByteBuffer[] segments;
+    private int segmentCount;
+    private int size;
+
+    public MappedEdgeStore(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Path file = Files.createTempFile(dir, "tlc-edges-", ".dat");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        this.segments = new MappedByteBuffer[16];
+        this.segmentCount = 0;
+        this.size = 0;
+    }
+
+    private static int position(int id, int offset) {
+        return ((id & SEGMENT_MASK) << RECORD_SHIFT) + offset;
+    }
+
+    private MappedByteBuffer segment(int id) {
+        return segments[id >>> SEGMENT_SHIFT];
+    }
+
+    @Override
+    public int add(int from, int to, int capacity, boolean hasAction) {
+        int id = size;
+        ensureCapacity(id + 1);
+        MappedByteBuffer segment = segment(id);
+        segment.putInt(position(id, FROM_OFFSET), from);
+        segment.putInt(position(id, TO_OFFSET), to);
+        segment.putInt(position(id, FLOW_OFFSET), 0);
+        segment.putInt(position(id, CAPACITY_OFFSET), hasAction ? capacity | HAS_ACTION_FLAG : capacity);
+        size++;
+        return id;
+    }
+
+    @Override
+    public int getFrom(int id) {
+        return segment(id).getInt(position(id, FROM_OFFSET));
+    }
+
+    @Override
+    public int getTo(int id) {
+        return segment(id).getInt(position(id, TO_OFFSET));
+    }
+
+    @Override
+    public int getFlow(int id) {
+        return segment(id).getInt(position(id, FLOW_OFFSET));
+    }
+
+    @Override
+    public int getCapacity(int id) {
+        return segment(id).getInt(position(id, CAPACITY_OFFSET)) & ~HAS_ACTION_FLAG;
+    }
+
+    @Override
+    public boolean hasAction(int id) {
+        return (segment(id).getInt(position(id, CAPACITY_OFFSET)) & HAS_ACTION_FLAG) != 0;
+    }
+
+    @Override
+    public void incFlow(int id, int df) {
+        MappedByteBuffer segment = segment(id);
+        int pos = position(id, FLOW_OFFSET);
+        segment.putInt(pos, segment.getInt(pos) + df);
+    }
+
+    @Override
+    public int getFlowVolatile(int id) {
+        return (int) INTS.getVolatile(segment(id), position(id, FLOW_OFFSET));
+    }
+
+    @Override
+    public boolean compareAndSetFlow(int id, int expectedFlow, int flow) {
+        return INTS.compareAndSet(segment(id), position(id, FLOW_OFFSET), expectedFlow, flow);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        int requiredSegments = (int) (((long) capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        if (requiredSegments <= segmentCount) {
+            return;
+        }
+        if (requiredSegments > segments.length) {
+            segments = Arrays.copyOf(segments, Math.max(requiredSegments, 2 * segments.length));
+        }
+        try {
+            for (; segmentCount < requiredSegments; segmentCount++) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                        segmentCount * SEGMENT_BYTES, SEGMENT_BYTES);
+                segment.order(ByteOrder.nativeOrder());
+                segments[segmentCount] = segment;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the deleted file. Its mappings cannot be unmapped explicitly, they and the disk space they hold
+     * are released once the segments dropped here are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        segments = new MappedByteBuffer[0];
+        segmentCount = 0;
+        size = 0;
+        channel.close();
+    }
+}
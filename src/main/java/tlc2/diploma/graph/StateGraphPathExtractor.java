@@ -1,6 +1,5 @@
 package tlc2.diploma.graph;
 
-import org.eclipse.collections.api.list.primitive.IntList;
 import org.eclipse.collections.api.list.primitive.MutableIntList;
 import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 import tlc2.TLCGlobals;
@@ -10,15 +9,23 @@ import tlc2.output.MP;
 import tlc2.tool.ModelChecker;
 import tlc2.tool.TLCState;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 
-public class StateGraphPathExtractor {
+public class StateGraphPathExtractor implements Closeable {
     private static final SimpleDateFormat SDF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
     private static final int INF = Integer.MAX_VALUE;
+    private static final boolean DEFER_EDGES = Boolean.getBoolean(StateGraphPathExtractor.class.getName() + ".deferEdges");
+    private static final boolean PARALLEL_DAG_SOLVER = Boolean.parseBoolean(
+            System.getProperty(StateGraphPathExtractor.class.getName() + ".parallelDagSolver", "true"));
+    private static final boolean CONCURRENT_PATH_EXTRACTION = Boolean.parseBoolean(
+            System.getProperty(StateGraphPathExtractor.class.getName() + ".concurrentPathExtraction", "true"));
+    private static final String MAX_FLOW_SOLVER = System.getProperty(StateGraphPathExtractor.class.getName() + ".maxFlowSolver", "dinic");
+    private static final String PATH_OPTIMIZER = System.getProperty(StateGraphPathExtractor.class.getName() + ".pathOptimizer", "auto");
 
-    private final StateNetwork network = new StateNetwork();
+    private final StateNetwork network = new StateNetwork(DEFER_EDGES);
 
     private int stateCount = 0;
 
@@ -32,6 +39,14 @@ public class StateGraphPathExtractor {
         return network.addNode(state) - 1;
     }
 
+    /**
+     * Returns the id of an already added state, or -1 if the state was not added.
+     */
+    public int getStateId(TLCState state) {
+        int node = network.getNodeId(state);
+        return node == -1 ? -1 : node - 1;
+    }
+
     public int addAction(TLCState from, TLCState to) {
         return network.addEdge(from, to, INF) / 2;
     }
@@ -43,9 +58,8 @@ public class StateGraphPathExtractor {
 
         MutableIntList degInOutDiffs = IntArrayList.newWithNValues(network.getNodeCount(), 0);
         for (int i = 0; i < network.getEdgeCount(); i += 2) {
-            StateNetwork.Edge edge = network.getEdge(i);
-            degInOutDiffs.set(edge.getFrom(), degInOutDiffs.get(edge.getFrom()) - 1);
-            degInOutDiffs.set(edge.getTo(), degInOutDiffs.get(edge.getTo()) + 1);
+            degInOutDiffs.set(network.getFrom(i), degInOutDiffs.get(network.getFrom(i)) - 1);
+            degInOutDiffs.set(network.getTo(i), degInOutDiffs.get(network.getTo(i)) + 1);
         }
 
         for (int i = 0; i < network.getNodeCount(); i++) {
@@ -64,14 +78,14 @@ public class StateGraphPathExtractor {
             }
             network.addEdge(i, network.getRoot(), INF / 2);
         }
+        network.freeze();
     }
 
     private int calculatePathCount() {
         pathCount = 0;
         for (int i = 0; i < network.getEdgeCount(); i += 2) {
-            StateNetwork.Edge fwd = network.getEdge(i);
-            if (fwd.getFrom() != network.getSource() && fwd.getTo() == network.getRoot()) {
-                pathCount += fwd.getFlow() + (fwd.hasAction() ? 1 : 0);
+            if (network.getFrom(i) != network.getSource() && network.getTo(i) == network.getRoot()) {
+                pathCount += network.getFlow(i) + (network.hasAction(i) ? 1 : 0);
             }
         }
         return pathCount;
@@ -94,49 +108,52 @@ public class StateGraphPathExtractor {
     private int calculatePathCoverTotalLength() {
         int result = 0;
         for (int i = 0; i < network.getEdgeCount(); i += 2) {
-            StateNetwork.Edge fwd = network.getEdge(i);
-            if (fwd.hasAction()) {
-                result += fwd.getFlow();
+            if (network.hasAction(i)) {
+                result += network.getFlow(i);
             }
         }
         return result;
     }
 
-    private boolean checkAcyclicDfs(int v, MutableIntList color) {
-        color.set(v, 1);
-        IntList adjListV = network.getAdjacentEdgeIds(v);
-        for (int i = 0; i < adjListV.size(); i++) {
-            StateNetwork.Edge edge = network.getEdge(adjListV.get(i));
-            if (!edge.isForward()) {
-                continue;
-            }
-            int to = edge.getTo();
-            if ((to == network.getRoot() && !edge.hasAction()) || to == network.getSink() || to == v) {
-                continue;
-            }
-            if (color.get(to) == 1) {
-                return false;
-            }
-            if (color.get(to) != 0) {
-                continue;
-            }
-            if (!checkAcyclicDfs(to, color)) {
-                return false;
-            }
+    private MaxFlowSolver createMaxFlowSolver() {
+        switch (MAX_FLOW_SOLVER) {
+            case "dinic":
+                return new DinicMaxFlowSolver(this.network);
+            case "parallelDinic":
+                return new ParallelDinicMaxFlowSolver(this.network);
+            case "pushRelabel":
+                return new PushRelabelMaxFlowSolver(this.network);
+            case "parallelPushRelabel":
+                return new ParallelPushRelabelMaxFlowSolver(this.network);
+            default:
+                throw new IllegalArgumentException("unknown max flow solver: " + MAX_FLOW_SOLVER);
         }
-        color.set(v, 2);
-        return true;
     }
 
-    private boolean isGraphAcyclic() {
-        return checkAcyclicDfs(network.getRoot(), IntArrayList.newWithNValues(network.getNodeCount(), 0));
+    private NetworkPathOptimizer createPathOptimizer(boolean graphAcyclic, int depth) {
+        switch (PATH_OPTIMIZER) {
+            case "auto":
+                return graphAcyclic
+                        ? new HeuristicNetworkPathOptimizer(this.network, Math.min(8, depth - 1))
+                        : new MinCostNetworkPathOptimizer(this.network);
+            case "heuristic":
+                return graphAcyclic ? new HeuristicNetworkPathOptimizer(this.network, Math.min(8, depth - 1)) : null;
+            case "minCost":
+                return new MinCostNetworkPathOptimizer(this.network);
+            case "bfs":
+                return new BFSNetworkPathOptimizer(this.network);
+            case "none":
+                return null;
+            default:
+                throw new IllegalArgumentException("unknown path optimizer: " + PATH_OPTIMIZER);
+        }
     }
 
     private String now() {
         return SDF.format(new Date());
     }
 
-    public Iterable<List<Edge>> extractPaths() {
+    public FlowPathExtractor extractPaths() {
         stateCount = network.getNodeCount() - 1;
         actionCount = network.getEdgeCount() / 2;
 
@@ -146,14 +163,21 @@ public class StateGraphPathExtractor {
 
         this.constructNetwork();
 
-        boolean graphAcyclic = this.isGraphAcyclic();
+        ParallelTopologicalSorter sorter = new ParallelTopologicalSorter(this.network);
+        sorter.sort();
+        boolean graphAcyclic = sorter.isAcyclic();
         if (!graphAcyclic) {
             MP.printMessage(EC.GENERAL, "  WARNING: model state graph contains CYCLES!");
         }
 
-        MaxFlowSolver maxFlowSolver = graphAcyclic
-                ? new NaiveMaxFlowSolver(this.network)
-                : new DinicMaxFlowSolver(this.network);
+        MaxFlowSolver maxFlowSolver;
+        if (!graphAcyclic) {
+            maxFlowSolver = this.createMaxFlowSolver();
+        } else if (PARALLEL_DAG_SOLVER) {
+            maxFlowSolver = new ParallelDagMaxFlowSolver(this.network, sorter);
+        } else {
+            maxFlowSolver = new NaiveMaxFlowSolver(this.network, sorter);
+        }
         maxFlowSolver.findMaxFlow();
 
         int pathCount = this.calculatePathCount();
@@ -167,8 +191,8 @@ public class StateGraphPathExtractor {
 
         // remove negative cycles from network
         int newPathCount = pathCount;
-        if (graphAcyclic) {
-            NetworkPathOptimizer pathOptimizer = new HeuristicNetworkPathOptimizer(this.network, Math.min(8, depth - 1));
+        NetworkPathOptimizer pathOptimizer = this.createPathOptimizer(graphAcyclic, depth);
+        if (pathOptimizer != null) {
             pathOptimizer.optimizePaths();
             newPathCount = this.calculatePathCount();
         }
@@ -182,8 +206,7 @@ public class StateGraphPathExtractor {
 
         // transform flow to circulation
         for (int i = 0; i < network.getEdgeCount(); i += 2) {
-            StateNetwork.Edge fwd = network.getEdge(i);
-            if (fwd.hasAction()) {
+            if (network.hasAction(i)) {
                 network.incFlow(i, 1);
             }
         }
@@ -195,32 +218,19 @@ public class StateGraphPathExtractor {
 
         // find paths
         MP.printMessage(EC.GENERAL, "Preparing to export path cover...");
-        return graphAcyclic 
-                ? new AcyclicFlowPathExtractor(network, pathCount)
-                : new EulerFlowPathExtractor(network);
-    }
-
-    public static class Edge {
-        private final int id;
-        private final int from;
-        private final int to;
-
-        public Edge(int id, int from, int to) {
-            this.id = id;
-            this.from = from;
-            this.to = to;
-        }
-
-        public int getId() {
-            return id;
-        }
-
-        public int getFrom() {
-            return from;
+        if (!graphAcyclic) {
+            return new EulerFlowPathExtractor(network);
         }
+        return CONCURRENT_PATH_EXTRACTION
+                ? new ConcurrentAcyclicFlowPathExtractor(network, pathCount)
+                : new AcyclicFlowPathExtractor(network, pathCount);
+    }
 
-        public int getTo() {
-            return to;
-        }
+    /**
+     * Releases the state network, to be called once all paths returned by {@link #extractPaths()} are taken.
+     */
+    @Override
+    public void close() throws IOException {
+        network.close();
     }
 }
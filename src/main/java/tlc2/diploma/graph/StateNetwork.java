@@ -1,36 +1,64 @@
 package tlc2.diploma.graph;
 
-import org.eclipse.collections.api.list.primitive.IntList;
-import org.eclipse.collections.api.list.primitive.MutableIntList;
-import org.eclipse.collections.api.map.primitive.MutableLongIntMap;
-import org.eclipse.collections.impl.list.mutable.FastList;
-import org.eclipse.collections.impl.list.mutable.primitive.BooleanArrayList;
-import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
-import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import tlc2.diploma.util.SpillIntQueue;
+import tlc2.diploma.util.SpillLongQueue;
+import tlc2.diploma.util.StripedLongIntMap;
 import tlc2.tool.TLCState;
 
-import java.util.AbstractList;
-import java.util.List;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class StateNetwork {
+public class StateNetwork implements Closeable {
     public static final int INF = Integer.MAX_VALUE;
-    private final List<MutableIntList> adjList;
-    private final EdgeArrayList edges;
-    private final MutableLongIntMap fpToId = new LongIntHashMap();
+    private static final String SPILL_DIR = System.getProperty(StateNetwork.class.getName() + ".spillDir");
+
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final EdgeStore edges;
+    private final StripedLongIntMap fpToId = new StripedLongIntMap();
+    private final boolean deferEdges;
+    private final AtomicInteger deferredEdgeCount = new AtomicInteger();
+    private final Queue<DeferredEdgeBuffer> deferredEdgeBuffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<DeferredEdgeBuffer> deferredEdgeBuffer = ThreadLocal.withInitial(() -> {
+        DeferredEdgeBuffer buffer = new DeferredEdgeBuffer();
+        deferredEdgeBuffers.add(buffer);
+        return buffer;
+    });
     private boolean shutDown = false;
+    private int[] adjListOffsets = null;
+    private int[] adjListEdgeIds = null;
 
     private int source;
     private int sink;
     private int root;
 
-    public StateNetwork() {
-        this.adjList = new FastList<>();
-        this.edges = new EdgeArrayList();
+    public StateNetwork(boolean deferEdges) {
+        this.edges = createEdgeStore();
+        this.deferEdges = deferEdges;
         this.source = 0;
         this.sink = -1;
         this.root = 1;
     }
 
+    public StateNetwork() {
+        this(false);
+    }
+
+    private static EdgeStore createEdgeStore() {
+        if (SPILL_DIR == null) {
+            return new HeapEdgeStore();
+        }
+        try {
+            return new MappedEdgeStore(Path.of(SPILL_DIR));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private static int mod(int a, int b) {
         int res = a % b;
         if (a < 0) {
@@ -40,7 +68,7 @@ public class StateNetwork {
     }
 
     public int getSource() {
-        return mod(source, adjList.size());
+        return mod(source, getNodeCount());
     }
 
     public void setSource(int source) {
@@ -49,7 +77,7 @@ public class StateNetwork {
     }
 
     public int getSink() {
-        return mod(sink, adjList.size());
+        return mod(sink, getNodeCount());
     }
 
     public void setSink(int sink) {
@@ -68,21 +96,21 @@ public class StateNetwork {
 
     public int addNode(TLCState state) {
         ensureNotShutDown();
-        int id;
-        synchronized (adjList) {
-            id = adjList.size();
-            adjList.add(new IntArrayList(4));
-        }
+        int id = nodeCount.getAndIncrement();
         if (state != null) {
-            long stateFp = state.fingerPrint();
-            synchronized (fpToId) {
-                fpToId.put(stateFp, id);
-                fpToId.notifyAll();
-            }
+            fpToId.put(state.fingerPrint(), id);
         }
         return id;
     }
 
+    /**
+     * Returns the id of a node added for the state, or -1 if there is no such node.
+     */
+    public int getNodeId(TLCState state) {
+        ensureNotShutDown();
+        return fpToId.getIfAbsent(state.fingerPrint(), -1);
+    }
+
     private void ensureNotShutDown() {
         if (shutDown) {
             throw new IllegalStateException("network is already shut down");
@@ -91,39 +119,64 @@ public class StateNetwork {
 
     public void shutdown() {
         ensureNotShutDown();
+        if (deferEdges) {
+            resolveDeferredEdges();
+        }
         System.gc();
         shutDown = true;
         fpToId.clear();
     }
 
+    private void ensureFrozen() {
+        if (adjListOffsets == null) {
+            throw new IllegalStateException("network is not frozen yet");
+        }
+    }
+
+    public void freeze() {
+        if (!shutDown) {
+            throw new IllegalStateException("network must be shut down before freezing");
+        }
+        if (adjListOffsets != null) {
+            throw new IllegalStateException("network is already frozen");
+        }
+        int nodeCount = getNodeCount(), edgeCount = getEdgeCount();
+        int[] offsets = new int[nodeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            offsets[getFrom(i) + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] edgeIds = new int[edgeCount];
+        int[] fillPt = new int[nodeCount];
+        System.arraycopy(offsets, 0, fillPt, 0, nodeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            edgeIds[fillPt[getFrom(i)]++] = i;
+        }
+        adjListOffsets = offsets;
+        adjListEdgeIds = edgeIds;
+    }
+
     public int getNodeCount() {
-        return adjList.size();
+        return nodeCount.get();
     }
 
     public int getEdgeCount() {
-        return edges.size();
+        return shutDown ? 2 * edges.size() : 2 * (edges.size() + deferredEdgeCount.get());
     }
 
     public int addEdge(TLCState fromState, TLCState toState, int cap) {
         long fromFp = fromState.fingerPrint(), toFp = toState.fingerPrint();
+        if (deferEdges) {
+            int id = deferredEdgeCount.getAndIncrement();
+            deferredEdgeBuffer.get().add(id, fromFp, toFp, cap);
+            return 2 * id;
+        }
         int from, to;
         try {
-            synchronized (fpToId) {
-                while (true) {
-                    from = fpToId.getIfAbsent(fromFp, -1);
-                    if (from != -1) {
-                        break;
-                    }
-                    fpToId.wait();
-                }
-                while (true) {
-                    to = fpToId.getIfAbsent(toFp, -1);
-                    if (to != -1) {
-                        break;
-                    }
-                    fpToId.wait();
-                }
-            }
+            from = fpToId.await(fromFp);
+            to = fpToId.await(toFp);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
@@ -135,179 +188,148 @@ public class StateNetwork {
         return addEdge(from, to, cap, false);
     }
 
-    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
-    private int addEdge(int from, int to, int cap, boolean hasAction) {
-        MutableIntList adjListFrom, adjListTo;
-        synchronized (adjList) {
-            adjListFrom = adjList.get(from);
-            adjListTo = adjList.get(to);
+    /**
+     * Adds an edge between nodes, {@code hasAction} marks it as a transition of the state graph.
+     */
+    public int addEdge(int from, int to, int cap, boolean hasAction) {
+        if (adjListOffsets != null) {
+            throw new IllegalStateException("network is already frozen");
         }
-
-        int id;
         synchronized (edges) {
-            id = edges.size();
-            edges.add(from, to, cap, hasAction);
-        }
-        synchronized (adjListFrom) {
-            adjListFrom.add(id);
-        }
-        synchronized (adjListTo) {
-            adjListTo.add(id + 1);
+            return 2 * edges.add(from, to, cap, hasAction);
         }
-        return id;
     }
 
-    public Edge getEdge(int i) {
-        return edges.get(i);
+    private void resolveDeferredEdges() {
+        int count = deferredEdgeCount.get();
+        int[] from = new int[count], to = new int[count], cap = new int[count];
+        deferredEdgeBuffers.parallelStream().forEach(buffer -> buffer.resolve(fpToId, from, to, cap));
+        deferredEdgeBuffers.clear();
+
+        edges.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            addEdge(from[i], to[i], cap[i], true);
+        }
     }
 
     public void ensureEdgeCapacity(int capacity) {
-        edges.ensureCapacity(capacity);
+        edges.ensureCapacity((capacity + 1) / 2);
     }
 
-    public IntList getAdjacentEdgeIds(int i) {
-        return adjList.get(i).asUnmodifiable();
+    /**
+     * Returns offsets into {@link #getAdjListEdgeIds()}: edges adjacent to node {@code i}
+     * are stored at indices from {@code offsets[i]} inclusive to {@code offsets[i + 1]} exclusive.
+     */
+    public int[] getAdjListOffsets() {
+        ensureFrozen();
+        return adjListOffsets;
     }
 
-    public void incFlow(int index, int flow) {
-        int newIndex = index / 2;
-        int df = index % 2 == 0 ? flow : -flow;
-        edges.flowList.set(newIndex, edges.flowList.get(newIndex) + df);
+    public int[] getAdjListEdgeIds() {
+        ensureFrozen();
+        return adjListEdgeIds;
     }
 
-    public interface Edge {
-        int getFrom();
-        int getTo();
-        int getFlow();
-        int getCapacity();
-        boolean hasAction();
-        boolean isForward();
-        Edge getTwin();
+    public static boolean isForward(int eId) {
+        return eId % 2 == 0;
     }
 
-    public static class EdgeArrayList extends AbstractList<Edge> {
-        private final IntArrayList fromList;
-        private final IntArrayList toList;
-        private final IntArrayList flowList;
-        private final IntArrayList capacityList;
-        private final BooleanArrayList hasActionList;
-
-        public EdgeArrayList() {
-            this.fromList = new IntArrayList();
-            this.toList = new IntArrayList();
-            this.flowList = new IntArrayList();
-            this.capacityList = new IntArrayList();
-            this.hasActionList = new BooleanArrayList();
-        }
-
-        public boolean add(int from, int to, int capacity, boolean hasAction) {
-            hasActionList.add(hasAction);
-            return fromList.add(from) & toList.add(to) & flowList.add(0) & capacityList.add(capacity);
-        }
-
-        @Override
-        public Edge get(int i) {
-            return i % 2 == 0 ? new ForwardEdgeView(i / 2) : new BackwardEdgeView(i / 2);
-        }
-
-        @Override
-        public int size() {
-            return 2 * hasActionList.size();
-        }
-
-        public void ensureCapacity(int capacity) {
-            int newCapacity = (capacity + 1) / 2;
-            fromList.ensureCapacity(newCapacity);
-            toList.ensureCapacity(newCapacity);
-            flowList.ensureCapacity(newCapacity);
-            capacityList.ensureCapacity(newCapacity);
-//            hasActionList.ensureCapacity(newCapacity);
-        }
+    public static int getTwin(int eId) {
+        return eId ^ 1;
+    }
 
-        private class ForwardEdgeView implements Edge {
-            private final int id;
+    public int getFrom(int eId) {
+        return isForward(eId) ? edges.getFrom(eId / 2) : edges.getTo(eId / 2);
+    }
 
-            private ForwardEdgeView(int id) {
-                this.id = id;
-            }
+    public int getTo(int eId) {
+        return isForward(eId) ? edges.getTo(eId / 2) : edges.getFrom(eId / 2);
+    }
 
-            @Override
-            public int getFrom() {
-                return EdgeArrayList.this.fromList.get(id);
-            }
+    public int getFlow(int eId) {
+        int flow = edges.getFlow(eId / 2);
+        return isForward(eId) ? flow : edges.getCapacity(eId / 2) - flow;
+    }
 
-            @Override
-            public int getTo() {
-                return EdgeArrayList.this.toList.get(id);
-            }
+    public int getCapacity(int eId) {
+        return edges.getCapacity(eId / 2);
+    }
 
-            @Override
-            public int getFlow() {
-                return EdgeArrayList.this.flowList.get(id);
-            }
+    public int getResidual(int eId) {
+        int flow = edges.getFlow(eId / 2);
+        return isForward(eId) ? edges.getCapacity(eId / 2) - flow : flow;
+    }
 
-            @Override
-            public int getCapacity() {
-                return EdgeArrayList.this.capacityList.get(id);
-            }
+    public boolean hasAction(int eId) {
+        return isForward(eId) && edges.hasAction(eId / 2);
+    }
 
-            @Override
-            public boolean hasAction() {
-                return EdgeArrayList.this.hasActionList.get(id);
-            }
+    public void incFlow(int eId, int flow) {
+        edges.incFlow(eId / 2, isForward(eId) ? flow : -flow);
+    }
 
-            @Override
-            public boolean isForward() {
-                return true;
+    /**
+     * Atomically pushes as much of {@code maxFlow} along the edge as its residual capacity allows.
+     *
+     * @return pushed flow, zero if the edge is saturated
+     */
+    public int pushFlow(int eId, int maxFlow) {
+        int id = eId / 2, cap = edges.getCapacity(id);
+        while (true) {
+            int flow = edges.getFlowVolatile(id);
+            int df = Math.min(maxFlow, isForward(eId) ? cap - flow : flow);
+            if (df <= 0) {
+                return 0;
             }
-
-            @Override
-            public Edge getTwin() {
-                return new BackwardEdgeView(id);
+            if (edges.compareAndSetFlow(id, flow, isForward(eId) ? flow + df : flow - df)) {
+                return df;
             }
         }
+    }
 
-        private class BackwardEdgeView implements Edge {
-            private final int id;
-
-            private BackwardEdgeView(int id) {
-                this.id = id;
-            }
-
-            @Override
-            public int getFrom() {
-                return EdgeArrayList.this.toList.get(id);
-            }
-
-            @Override
-            public int getTo() {
-                return EdgeArrayList.this.fromList.get(id);
-            }
-
-            @Override
-            public int getFlow() {
-                return getCapacity() - EdgeArrayList.this.flowList.get(id);
-            }
-
-            @Override
-            public int getCapacity() {
-                return EdgeArrayList.this.capacityList.get(id);
-            }
+    /**
+     * Releases the edge store once the paths are extracted, the network must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        adjListOffsets = null;
+        adjListEdgeIds = null;
+        edges.close();
+    }
 
-            @Override
-            public boolean hasAction() {
-                return false;
-            }
+    // edges recorded by one worker, spilled to disk when the shared memory budget is exhausted
+    private static class DeferredEdgeBuffer {
+        private final SpillIntQueue ids = new SpillIntQueue();
+        private final SpillLongQueue fromFps = new SpillLongQueue();
+        private final SpillLongQueue toFps = new SpillLongQueue();
+        private final SpillIntQueue caps = new SpillIntQueue();
+
+        public void add(int id, long fromFp, long toFp, int cap) {
+            ids.offer(id);
+            fromFps.offer(fromFp);
+            toFps.offer(toFp);
+            caps.offer(cap);
+        }
 
-            @Override
-            public boolean isForward() {
-                return false;
+        public void resolve(StripedLongIntMap fpToId, int[] from, int[] to, int[] cap) {
+            try (ids; fromFps; toFps; caps) {
+                while (!ids.isEmpty()) {
+                    int id = ids.poll();
+                    from[id] = resolve(fpToId, fromFps.poll());
+                    to[id] = resolve(fpToId, toFps.poll());
+                    cap[id] = caps.poll();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+        }
 
-            @Override
-            public Edge getTwin() {
-                return new ForwardEdgeView(id);
+        private static int resolve(StripedLongIntMap fpToId, long fp) {
+            int id = fpToId.getIfAbsent(fp, -1);
+            if (id == -1) {
+                throw new IllegalStateException("no state with fingerprint " + fp + " was added to the network");
             }
+            return id;
         }
     }
 }
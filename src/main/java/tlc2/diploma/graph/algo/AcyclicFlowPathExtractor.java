@@ -1,68 +1,68 @@
 package tlc2.diploma.graph.algo;
 
-import org.eclipse.collections.api.list.MutableList;
-import org.eclipse.collections.api.list.primitive.IntList;
-import org.eclipse.collections.api.list.primitive.MutableIntList;
-import org.eclipse.collections.impl.list.mutable.FastList;
-import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
-import tlc2.diploma.graph.StateGraphPathExtractor.Edge;
 import tlc2.diploma.graph.StateNetwork;
 
-import java.util.Iterator;
-import java.util.List;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class AcyclicFlowPathExtractor implements FlowPathExtractor {
     private final StateNetwork network;
     private final int pathCount;
-    private final MutableIntList adjListPt;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int[] adjListPt;
+    private final int[] selfLoopPt;
     private int i = 0;
 
     public AcyclicFlowPathExtractor(StateNetwork network, int pathCount) {
         this.network = network;
         this.pathCount = pathCount;
-        this.adjListPt = IntArrayList.newWithNValues(network.getNodeCount(), 0);
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.adjListPt = Arrays.copyOf(adjListOffsets, network.getNodeCount());
+        this.selfLoopPt = Arrays.copyOf(adjListOffsets, network.getNodeCount());
     }
 
-    private void extractPathAcyclicDfs(int v, MutableList<Edge> path) {
-        IntList adjListV = network.getAdjacentEdgeIds(v);
-        for (; adjListPt.get(v) < adjListV.size(); adjListPt.set(v, adjListPt.get(v) + 1)) {
-            int eId = adjListV.get(adjListPt.get(v));
-            StateNetwork.Edge fwd = network.getEdge(eId);
-            if (!fwd.isForward()) {
-                continue;
-            }
+    @Override
+    public boolean hasNextPath() {
+        return i < pathCount;
+    }
 
-            int to = fwd.getTo();
-            if (to == network.getSink()) {
-                continue;
+    // self-loops go first, the last path through a node may leave it before a self-loop behind its other edges
+    private int nextEdge(int v) {
+        for (; selfLoopPt[v] < adjListOffsets[v + 1]; selfLoopPt[v]++) {
+            int eId = adjListEdgeIds[selfLoopPt[v]];
+            if (StateNetwork.isForward(eId) && network.getTo(eId) == v && network.getFlow(eId) > 0) {
+                return eId;
             }
-
-            if (fwd.getFlow() > 0) {
-                network.incFlow(eId, -1);
-                if (to != network.getRoot()) {
-                    extractPathAcyclicDfs(to, path);
-                    path.add(new Edge(eId / 2, fwd.getFrom() - 1, fwd.getTo() - 1));
-                }
-                break;
+        }
+        for (; adjListPt[v] < adjListOffsets[v + 1]; adjListPt[v]++) {
+            int eId = adjListEdgeIds[adjListPt[v]];
+            if (StateNetwork.isForward(eId) && network.getTo(eId) != network.getSink() && network.getFlow(eId) > 0) {
+                return eId;
             }
         }
+        return -1;
     }
 
     @Override
-    public Iterator<List<Edge>> iterator() {
-        return new Iterator<>() {
-            @Override
-            public boolean hasNext() {
-                return i < pathCount;
+    public void nextPath(PathSink sink) throws IOException {
+        i++;
+        int v = network.getRoot();
+        while (true) {
+            int eId = nextEdge(v);
+            if (eId == -1) {
+                return;
             }
-
-            @Override
-            public List<Edge> next() {
-                i++;
-                MutableList<Edge> path = new FastList<>();
-                extractPathAcyclicDfs(network.getRoot(), path);
-                return path.reverseThis();
+            network.incFlow(eId, -1);
+            int to = network.getTo(eId);
+            if (network.hasAction(eId)) {
+                sink.accept(eId / 2, v - 1, to - 1);
             }
-        };
+            if (to == network.getRoot()) {
+                return;
+            }
+            v = to;
+        }
     }
 }
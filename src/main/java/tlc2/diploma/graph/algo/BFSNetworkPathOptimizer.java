@@ -1,82 +1,77 @@
 package tlc2.diploma.graph.algo;
 
-import org.eclipse.collections.api.list.primitive.IntList;
 import tlc2.diploma.graph.StateNetwork;
 
-import java.util.*;
-
-import static tlc2.diploma.graph.StateNetwork.INF;
+import java.util.Arrays;
 
+/**
+ * Removes paths one by one: each BFS looks for a residual cycle through the root that cancels
+ * one path end and one path start. Only nodes visited by the BFS are reset between iterations.
+ */
 public class BFSNetworkPathOptimizer implements NetworkPathOptimizer {
     private final StateNetwork network;
-    private final List<Integer> distance;
-    private final List<Integer> parent;
-    private final Queue<Integer> queue;
-    private final List<Integer> count;
-    private final Map<Integer, Integer> countMap;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int[] parent;
+    private final int[] queue;
 
     public BFSNetworkPathOptimizer(StateNetwork network) {
         this.network = network;
-        this.distance = new ArrayList<>(Collections.nCopies(network.getNodeCount(), INF));
-        this.parent = new ArrayList<>(Collections.nCopies(network.getNodeCount(), -1));
-        this.queue = new ArrayDeque<>();
-        this.count = new ArrayList<>(Collections.nCopies(network.getNodeCount(), 0));
-        this.countMap = new HashMap<>();
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.parent = new int[network.getNodeCount()];
+        Arrays.fill(this.parent, -1);
+        this.queue = new int[network.getNodeCount()];
     }
 
-    @SuppressWarnings({"DataFlowIssue", "ConstantConditions"})
     private boolean tryRemovePath() {
-        Collections.fill(distance, INF);
-        Collections.fill(parent, -1);
-        IntList adjListRoot = network.getAdjacentEdgeIds(network.getRoot());
-        for (int i = 0; i < adjListRoot.size(); i++) {
-            int eId = adjListRoot.get(i);
-            StateNetwork.Edge edge = network.getEdge(eId);
-            if (edge.isForward()) {
+        int root = network.getRoot();
+        int queueLeft = 0, queueRight = 0;
+        for (int i = adjListOffsets[root]; i < adjListOffsets[root + 1]; i++) {
+            int eId = adjListEdgeIds[i];
+            if (StateNetwork.isForward(eId)) {
                 continue;
             }
-            int to = edge.getTo();
-            if (edge.getCapacity() - edge.getFlow() > 0) {
-                distance.set(to, 0);
-                parent.set(to, eId);
-                queue.add(to);
+            int to = network.getTo(eId);
+            if (parent[to] == -1 && network.getResidual(eId) > 0) {
+                parent[to] = eId;
+                queue[queueRight++] = to;
             }
         }
 
-        while (!queue.isEmpty() && distance.get(network.getRoot()) == INF) {
-            int cur = queue.poll();
-            IntList adjListCur = network.getAdjacentEdgeIds(cur);
-            for (int i = 0; i < adjListCur.size(); i++) {
-                int eId = adjListCur.get(i);
-                StateNetwork.Edge edge = network.getEdge(eId);
-                int to = edge.getTo();
-                if (to == network.getRoot() && edge.isForward()) {
+        while (queueLeft < queueRight && parent[root] == -1) {
+            int cur = queue[queueLeft++];
+            for (int i = adjListOffsets[cur]; i < adjListOffsets[cur + 1]; i++) {
+                int eId = adjListEdgeIds[i];
+                int to = network.getTo(eId);
+                if (to == root && StateNetwork.isForward(eId)) {
                     continue;
                 }
-                if (distance.get(to) == INF && edge.getCapacity() - edge.getFlow() > 0) {
-                    distance.set(to, distance.get(cur) + 1);
-                    parent.set(to, eId);
-                    queue.add(to);
-                    count.set(to, count.get(cur) + (edge.isForward() ? 1 : 0));
+                if (parent[to] == -1 && network.getResidual(eId) > 0) {
+                    parent[to] = eId;
+                    if (to == root) {
+                        break;
+                    }
+                    queue[queueRight++] = to;
                 }
             }
         }
-        queue.clear();
-
-
-        if (distance.get(network.getRoot()) != INF) {
-            countMap.compute(count.get(network.getRoot()), (k, v) -> v == null ? 1 : v + 1);
 
-            int cur = network.getRoot();
+        boolean found = parent[root] != -1;
+        if (found) {
+            int cur = root;
             do {
-                int eId = parent.get(cur);
-                StateNetwork.Edge fwd = network.getEdge(eId);
+                int eId = parent[cur];
                 network.incFlow(eId, 1);
-                cur = fwd.getFrom();
-            } while (cur != network.getRoot());
-            return true;
+                cur = network.getFrom(eId);
+            } while (cur != root);
+        }
+
+        for (int i = 0; i < queueRight; i++) {
+            parent[queue[i]] = -1;
         }
-        return false;
+        parent[root] = -1;
+        return found;
     }
 
     @Override
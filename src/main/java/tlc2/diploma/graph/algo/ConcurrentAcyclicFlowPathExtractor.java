@@ -0,0 +1,114 @@
+package tlc2.diploma.graph.algo;
+
+import tlc2.diploma.graph.StateNetwork;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Acyclic path extractor that may be called from several threads at once. Every thread peels
+ * one unit of flow at a time off the edges with a CAS, so paths are claimed independently.
+ * Flows only decrease during extraction, hence an edge seen without flow stays exhausted and
+ * the shared current-edge pointers only move forward, advanced with a CAS.
+ */
+public class ConcurrentAcyclicFlowPathExtractor implements FlowPathExtractor {
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final StateNetwork network;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int[] adjListPt;
+    private final int[] selfLoopPt;
+    private final AtomicInteger remainingPaths;
+
+    public ConcurrentAcyclicFlowPathExtractor(StateNetwork network, int pathCount) {
+        this.network = network;
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.adjListPt = Arrays.copyOf(adjListOffsets, network.getNodeCount());
+        this.selfLoopPt = Arrays.copyOf(adjListOffsets, network.getNodeCount());
+        this.remainingPaths = new AtomicInteger(pathCount);
+    }
+
+    @Override
+    public boolean hasNextPath() {
+        return remainingPaths.get() > 0;
+    }
+
+    @Override
+    public void nextPath(PathSink sink) throws IOException {
+        if (!tryNextPath(sink)) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    private boolean claim(int eId) {
+        return network.getFlow(eId) > 0 && network.pushFlow(StateNetwork.getTwin(eId), 1) > 0;
+    }
+
+    // claims a unit of flow of the next edge out of v, self-loops go first like in AcyclicFlowPathExtractor
+    private int claimNextEdge(int v) {
+        int pt = (int) INTS.getAcquire(selfLoopPt, v);
+        for (; pt < adjListOffsets[v + 1]; pt++) {
+            int eId = adjListEdgeIds[pt];
+            if (StateNetwork.isForward(eId) && network.getTo(eId) == v && claim(eId)) {
+                advance(selfLoopPt, v, pt);
+                return eId;
+            }
+        }
+        advance(selfLoopPt, v, pt);
+
+        pt = (int) INTS.getAcquire(adjListPt, v);
+        for (; pt < adjListOffsets[v + 1]; pt++) {
+            int eId = adjListEdgeIds[pt];
+            if (StateNetwork.isForward(eId) && network.getTo(eId) != network.getSink() && claim(eId)) {
+                advance(adjListPt, v, pt);
+                return eId;
+            }
+        }
+        advance(adjListPt, v, pt);
+        return -1;
+    }
+
+    @Override
+    public boolean tryNextPath(PathSink sink) throws IOException {
+        if (remainingPaths.getAndDecrement() <= 0) {
+            return false;
+        }
+        int v = network.getRoot();
+        while (true) {
+            int eId = claimNextEdge(v);
+            if (eId == -1) {
+                return true;
+            }
+            int to = network.getTo(eId);
+            if (network.hasAction(eId)) {
+                sink.accept(eId / 2, v - 1, to - 1);
+            }
+            if (to == network.getRoot()) {
+                return true;
+            }
+            v = to;
+        }
+    }
+
+    // raises pts[v] to pt unless another thread already moved it further
+    private void advance(int[] pts, int v, int pt) {
+        int cur = (int) INTS.getAcquire(pts, v);
+        while (cur < pt) {
+            if (INTS.compareAndSet(pts, v, cur, pt)) {
+                return;
+            }
+            cur = (int) INTS.getAcquire(pts, v);
+        }
+    }
+}
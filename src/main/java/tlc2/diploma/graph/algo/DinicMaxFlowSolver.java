@@ -1,32 +1,42 @@
 package tlc2.diploma.graph.algo;
 
-import org.eclipse.collections.api.list.primitive.IntList;
 import tlc2.diploma.graph.StateNetwork;
+import tlc2.diploma.util.SpillIntStack;
 import util.ToolIO;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 
 import static tlc2.diploma.graph.StateNetwork.INF;
 
 public class DinicMaxFlowSolver implements MaxFlowSolver {
-    private final StateNetwork network;
+    protected final StateNetwork network;
+    protected final int[] adjListOffsets;
+    protected final int[] adjListEdgeIds;
 
-    private final int[] distance;
+    protected final int[] distance;
     private final int[] queue;
     private int queueLeft;
     private int queueRight;
     private final int[] adjListPt;
+    private final SpillIntStack edgeStack;
+    private final SpillIntStack flowStack;
 
     public DinicMaxFlowSolver(StateNetwork network) {
         this.network = network;
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
         this.distance = new int[network.getNodeCount()];
         this.queue = new int[network.getNodeCount()];
         this.queueLeft = 0;
         this.queueRight = 0;
         this.adjListPt = new int[network.getNodeCount()];
+        this.edgeStack = new SpillIntStack();
+        this.flowStack = new SpillIntStack();
     }
 
-    private boolean dinicBfs() {
+    protected boolean dinicBfs() {
         int source = network.getSource(), sink = network.getSink();
 
         Arrays.fill(distance, INF);
@@ -36,12 +46,10 @@ public class DinicMaxFlowSolver implements MaxFlowSolver {
         while (queueRight > queueLeft && distance[sink] == INF) {
             int cur = queue[queueLeft++];
             int dist = distance[cur];
-            IntList adjListCur = network.getAdjacentEdgeIds(cur);
-            for (int i = 0; i < adjListCur.size(); i++) {
-                int eId = adjListCur.get(i);
-                StateNetwork.Edge edge = network.getEdge(eId);
-                int to = edge.getTo();
-                if (distance[to] == INF && edge.getCapacity() - edge.getFlow() > 0) {
+            for (int i = adjListOffsets[cur]; i < adjListOffsets[cur + 1]; i++) {
+                int eId = adjListEdgeIds[i];
+                int to = network.getTo(eId);
+                if (distance[to] == INF && network.getResidual(eId) > 0) {
                     distance[to] = dist + 1;
                     queue[queueRight++] = to;
                 }
@@ -55,40 +63,60 @@ public class DinicMaxFlowSolver implements MaxFlowSolver {
         return distance[sink] < INF;
     }
 
-    private int dinicDfs(int v, int flow) {
-        if (v == network.getSink()) {
-            return flow;
-        }
-        int dist = distance[v];
-        IntList adjListV = network.getAdjacentEdgeIds(v);
-        for (; adjListPt[v] < adjListV.size(); adjListPt[v]++) {
-            int eId = adjListV.get(adjListPt[v]);
-            StateNetwork.Edge fwd = network.getEdge(eId);
-            int to = fwd.getTo();
+    private int dinicDfs() {
+        int v = network.getSource();
+        while (v != network.getSink()) {
+            int dist = distance[v];
+            int flow = flowStack.isEmpty() ? INF : flowStack.peek();
+            boolean advanced = false;
+            for (; adjListPt[v] < adjListOffsets[v + 1]; adjListPt[v]++) {
+                int eId = adjListEdgeIds[adjListPt[v]];
+                int to = network.getTo(eId);
 
-            int cap = fwd.getCapacity() - fwd.getFlow();
-            if (distance[to] == dist + 1 && cap > 0) {
-                int df = dinicDfs(to, Math.min(flow, cap));
-                if (df > 0) {
-                    network.incFlow(eId, df);
-                    return df;
+                int cap = network.getResidual(eId);
+                if (distance[to] == dist + 1 && cap > 0) {
+                    edgeStack.push(eId);
+                    flowStack.push(Math.min(flow, cap));
+                    v = to;
+                    advanced = true;
+                    break;
+                }
+            }
+            if (!advanced) {
+                if (edgeStack.isEmpty()) {
+                    return 0;
                 }
+                // dead end, skip the edge leading to it
+                int eId = edgeStack.pop();
+                flowStack.pop();
+                v = network.getFrom(eId);
+                adjListPt[v]++;
             }
         }
-        return 0;
+
+        int df = flowStack.peek();
+        while (!edgeStack.isEmpty()) {
+            network.incFlow(edgeStack.pop(), df);
+            flowStack.pop();
+        }
+        return df;
     }
 
     @Override
     public void findMaxFlow() {
-        ToolIO.out.print("    DinicMaxFlowSolver started\n    ");
-        while (dinicBfs()) {
-            Arrays.fill(adjListPt, 0);
-            while (true) {
-                if (dinicDfs(network.getSource(), INF) == 0) {
-                    break;
+        ToolIO.out.print("    " + getClass().getSimpleName() + " started\n    ");
+        try (edgeStack; flowStack) {
+            while (dinicBfs()) {
+                System.arraycopy(adjListOffsets, 0, adjListPt, 0, adjListPt.length);
+                while (true) {
+                    if (dinicDfs() == 0) {
+                        break;
+                    }
                 }
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        ToolIO.out.print("\n    DinicMaxFlowSolver finished\n");
+        ToolIO.out.print("\n    " + getClass().getSimpleName() + " finished\n");
     }
 }
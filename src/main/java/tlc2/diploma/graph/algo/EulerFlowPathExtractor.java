@@ -1,94 +1,80 @@
 package tlc2.diploma.graph.algo;
 
-import org.eclipse.collections.api.list.MutableList;
-import org.eclipse.collections.api.list.primitive.IntList;
-import org.eclipse.collections.api.list.primitive.MutableIntList;
-import org.eclipse.collections.impl.list.mutable.FastList;
-import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
-import tlc2.diploma.graph.StateGraphPathExtractor.Edge;
 import tlc2.diploma.graph.StateNetwork;
-import tlc2.diploma.util.FileIntStack;
+import tlc2.diploma.util.SpillIntStack;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 
 public class EulerFlowPathExtractor implements FlowPathExtractor {
     private final StateNetwork network;
-    private final FileIntStack edgeStack;
-    private final MutableIntList adjListPt;
+    private final SpillIntStack edgeStack;
+    private final SpillIntStack pathStack;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int[] adjListPt;
 
     public EulerFlowPathExtractor(StateNetwork network) {
-        try {
-            this.network = network;
-            Path tempDir = Files.createTempDirectory("tlc-euler-");
-            tempDir.toFile().deleteOnExit();
-            this.edgeStack = new FileIntStack(tempDir);
-            this.adjListPt = IntArrayList.newWithNValues(network.getNodeCount(), 0);
+        this.network = network;
+        this.edgeStack = new SpillIntStack();
+        this.pathStack = new SpillIntStack();
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.adjListPt = Arrays.copyOf(adjListOffsets, network.getNodeCount());
 
-            int firstEdge = network.getAdjacentEdgeIds(network.getRoot()).get(0);
-            network.incFlow(firstEdge, -1);
-            edgeStack.push(firstEdge);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        int firstEdge = adjListEdgeIds[adjListOffsets[network.getRoot()]];
+        network.incFlow(firstEdge, -1);
+        edgeStack.push(firstEdge);
     }
 
     @Override
-    public Iterator<List<Edge>> iterator() {
-        return new Iterator<>() {
-            @Override
-            public boolean hasNext() {
-                return !edgeStack.isEmpty();
-            }
-
-            @Override
-            public List<Edge> next() {
-                try {
-                    MutableList<Edge> path = new FastList<>();
-
-                    while (!edgeStack.isEmpty()) {
-                        StateNetwork.Edge edge = network.getEdge(edgeStack.peek());
-                        int v = edge.getTo();
+    public boolean hasNextPath() {
+        return !edgeStack.isEmpty();
+    }
 
-                        IntList adjListV = network.getAdjacentEdgeIds(v);
-                        for (; adjListPt.get(v) < adjListV.size(); adjListPt.set(v, adjListPt.get(v) + 1)) {
-                            int eId = adjListV.get(adjListPt.get(v));
-                            StateNetwork.Edge fwd = network.getEdge(eId);
-                            if (!fwd.isForward()) {
-                                continue;
-                            }
+    // the circuit is unwound backwards, so edges of a path are collected on a spill stack and emitted in reverse
+    @Override
+    public void nextPath(PathSink sink) throws IOException {
+        while (!edgeStack.isEmpty()) {
+            int edgeId = edgeStack.peek();
+            int v = network.getTo(edgeId);
 
-                            int to = fwd.getTo();
-                            if (to == network.getSink()) {
-                                continue;
-                            }
+            for (; adjListPt[v] < adjListOffsets[v + 1]; adjListPt[v]++) {
+                int eId = adjListEdgeIds[adjListPt[v]];
+                if (!StateNetwork.isForward(eId)) {
+                    continue;
+                }
 
-                            if (fwd.getFlow() > 0) {
-                                network.incFlow(eId, -1);
-                                edgeStack.push(eId);
-                                break;
-                            }
-                        }
-                        if (adjListPt.get(v) == adjListV.size()) {
-                            int eId = edgeStack.pop();
-                            if (edge.hasAction()) {
-                                path.add(new Edge(eId / 2, edge.getFrom() - 1, edge.getTo() - 1));
-                            }
-                            if (edge.getFrom() == network.getRoot() && !path.isEmpty()) {
-                                break;
-                            }
-                        }
-                    }
+                int to = network.getTo(eId);
+                if (to == network.getSink()) {
+                    continue;
+                }
 
-                    return path.reverseThis();
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+                if (network.getFlow(eId) > 0) {
+                    network.incFlow(eId, -1);
+                    edgeStack.push(eId);
+                    break;
                 }
             }
-        };
+            if (adjListPt[v] == adjListOffsets[v + 1]) {
+                edgeStack.pop();
+                if (network.hasAction(edgeId)) {
+                    pathStack.push(edgeId);
+                }
+                if (network.getFrom(edgeId) == network.getRoot() && !pathStack.isEmpty()) {
+                    break;
+                }
+            }
+        }
+
+        while (!pathStack.isEmpty()) {
+            int eId = pathStack.pop();
+            sink.accept(eId / 2, network.getFrom(eId) - 1, network.getTo(eId) - 1);
+        }
+
+        if (edgeStack.isEmpty()) {
+            edgeStack.close();
+            pathStack.close();
+        }
     }
 }
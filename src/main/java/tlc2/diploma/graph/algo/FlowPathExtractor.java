@@ -1,8 +1,36 @@
 package tlc2.diploma.graph.algo;
 
-import tlc2.diploma.graph.StateGraphPathExtractor.Edge;
+import java.io.IOException;
 
-import java.util.List;
+public interface FlowPathExtractor {
+    boolean hasNextPath();
 
-public interface FlowPathExtractor extends Iterable<List<Edge>> {
+    /**
+     * Decomposes the next path out of the flow and emits its edges to {@code sink} in forward order.
+     */
+    void nextPath(PathSink sink) throws IOException;
+
+    /**
+     * Returns {@code true} if {@link #tryNextPath(PathSink)} may be called from several threads at once.
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Emits the next path like {@link #nextPath(PathSink)} or returns {@code false} if all paths were taken.
+     * Unlike a {@code hasNextPath()} check followed by {@code nextPath()}, this is atomic for concurrent extractors.
+     */
+    default boolean tryNextPath(PathSink sink) throws IOException {
+        if (!hasNextPath()) {
+            return false;
+        }
+        nextPath(sink);
+        return true;
+    }
+
+    @FunctionalInterface
+    interface PathSink {
+        void accept(int id, int from, int to) throws IOException;
+    }
 }
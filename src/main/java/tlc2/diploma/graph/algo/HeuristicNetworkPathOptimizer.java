@@ -1,137 +1,206 @@
 package tlc2.diploma.graph.algo;
 
-import org.eclipse.collections.api.list.primitive.IntList;
-import org.eclipse.collections.api.list.primitive.MutableIntList;
-import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 import tlc2.diploma.graph.StateNetwork;
+import tlc2.diploma.util.SpillIntStack;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Queue;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static tlc2.diploma.graph.StateNetwork.INF;
 
 public class HeuristicNetworkPathOptimizer implements NetworkPathOptimizer {
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
     private final StateNetwork network;
-    private final MutableIntList adjListPt;
-    private final MutableIntList color;
-    private final MutableIntList distance;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int[] adjListPt;
+    private final int[] color;
+    private final int[] distance;
+    // frontier buffers of the parallel BFS, reused across iterations
+    private int[] frontier;
+    private int[] zeroFrontier;
+    private int[] oneFrontier;
+    private final AtomicInteger zeroFrontierSize;
+    private final AtomicInteger oneFrontierSize;
     private final int iterations;
+    private final SpillIntStack edgeStack;
+    private final SpillIntStack flowStack;
 
     public HeuristicNetworkPathOptimizer(StateNetwork network, int iterations) {
         this.network = network;
-        this.adjListPt = IntArrayList.newWithNValues(network.getNodeCount(), 0);
-        this.color = IntArrayList.newWithNValues(network.getNodeCount(), INF);
-        this.distance = IntArrayList.newWithNValues(network.getNodeCount(), INF);
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.adjListPt = new int[network.getNodeCount()];
+        this.color = new int[network.getNodeCount()];
+        this.distance = new int[network.getNodeCount()];
+        this.frontier = new int[network.getNodeCount()];
+        this.zeroFrontier = new int[network.getNodeCount()];
+        this.oneFrontier = new int[network.getNodeCount()];
+        this.zeroFrontierSize = new AtomicInteger();
+        this.oneFrontierSize = new AtomicInteger();
         this.iterations = iterations;
+        this.edgeStack = new SpillIntStack();
+        this.flowStack = new SpillIntStack();
     }
 
-    private int simpleCycleDfs(int u, int flow) {
-        if (flow == 0) {
-            return 0;
-        }
-        IntList adjListU = network.getAdjacentEdgeIds(u);
-        for (; adjListPt.get(u) < adjListU.size(); adjListPt.set(u, adjListPt.get(u) + 1)) {
-            int eId = adjListU.get(adjListPt.get(u));
-            StateNetwork.Edge fwd = network.getEdge(eId);
-            if (fwd.getFlow() == 0) {
-                continue;
-            }
-            int to = fwd.getTo(), w = distance.get(u) < distance.get(to) ? 0 : 1;
-            if (fwd.isForward() && to == network.getRoot() && !fwd.hasAction()) {
-                int df = Math.min(flow, fwd.getFlow());
-                network.incFlow(eId, -df);
-                return df;
-            }
-            if (!fwd.hasAction() && !fwd.getTwin().hasAction()) {
-                continue;
-            }
-            if (color.get(u) + w == color.get(to)) {
-                int df = simpleCycleDfs(to, Math.min(flow, fwd.getFlow()));
-                if (df > 0) {
+    private int simpleCycleDfs() {
+        int u = network.getRoot();
+        while (true) {
+            int flow = flowStack.isEmpty() ? INF : flowStack.peek();
+            boolean advanced = false;
+            for (; adjListPt[u] < adjListOffsets[u + 1]; adjListPt[u]++) {
+                int eId = adjListEdgeIds[adjListPt[u]];
+                if (network.getFlow(eId) == 0) {
+                    continue;
+                }
+                int to = network.getTo(eId), w = distance[u] < distance[to] ? 0 : 1;
+                if (StateNetwork.isForward(eId) && to == network.getRoot() && !network.hasAction(eId)) {
+                    int df = Math.min(flow, network.getFlow(eId));
                     network.incFlow(eId, -df);
+                    while (!edgeStack.isEmpty()) {
+                        network.incFlow(edgeStack.pop(), -df);
+                        flowStack.pop();
+                    }
                     return df;
                 }
+                if (!network.hasAction(eId) && !network.hasAction(StateNetwork.getTwin(eId))) {
+                    continue;
+                }
+                if (color[u] + w == color[to]) {
+                    edgeStack.push(eId);
+                    flowStack.push(Math.min(flow, network.getFlow(eId)));
+                    u = to;
+                    advanced = true;
+                    break;
+                }
+            }
+            if (!advanced) {
+                if (edgeStack.isEmpty()) {
+                    return 0;
+                }
+                flowStack.pop();
+                u = network.getFrom(edgeStack.pop());
+                adjListPt[u]++;
             }
         }
-        return 0;
+    }
+
+    private static boolean isActionPair(StateNetwork network, int eId) {
+        return network.hasAction(eId) || network.hasAction(StateNetwork.getTwin(eId));
+    }
+
+    // lowers value[u] to newValue with a CAS, returns true if this call lowered it
+    private static boolean tryLower(int[] value, int u, int newValue) {
+        int cur = (int) INTS.getVolatile(value, u);
+        while (newValue < cur) {
+            if (INTS.compareAndSet(value, u, cur, newValue)) {
+                return true;
+            }
+            cur = (int) INTS.getVolatile(value, u);
+        }
+        return false;
+    }
+
+    private void swapFrontiers() {
+        int[] tmp = frontier;
+        frontier = zeroFrontier;
+        zeroFrontier = tmp;
     }
 
     private void distanceBfs() {
-        distance.clear();
-        distance.addAll(IntArrayList.newWithNValues(network.getNodeCount(), INF));
-
-        // TODO: change to eclipse-collections Queue
-        Queue<Integer> queue = new ArrayDeque<>();
-        queue.add(network.getRoot());
-        distance.set(network.getRoot(), 0);
-
-        while (!queue.isEmpty()) {
-            int u = queue.poll();
-            int dist = distance.get(u);
-            IntList adjListU = network.getAdjacentEdgeIds(u);
-            for (int i = 0; i < adjListU.size(); i++) {
-                int eId = adjListU.get(i);
-                StateNetwork.Edge fwd = network.getEdge(eId);
-                if (!fwd.hasAction() && !fwd.getTwin().hasAction()) {
-                    continue;
-                }
-                int to = fwd.getTo();
-                if (dist + 1 < distance.get(to)) {
-                    distance.set(to, dist + 1);
-                    queue.add(to);
+        Arrays.fill(distance, INF);
+        distance[network.getRoot()] = 0;
+        frontier[0] = network.getRoot();
+
+        int frontierSize = 1;
+        for (int dist = 0; frontierSize > 0; dist++) {
+            int[] cur = frontier, next = zeroFrontier;
+            int nextDist = dist + 1;
+            zeroFrontierSize.set(0);
+            IntStream.range(0, frontierSize).parallel().forEach(k -> {
+                int u = cur[k];
+                for (int i = adjListOffsets[u]; i < adjListOffsets[u + 1]; i++) {
+                    int eId = adjListEdgeIds[i];
+                    if (isActionPair(network, eId) && tryLower(distance, network.getTo(eId), nextDist)) {
+                        next[zeroFrontierSize.getAndIncrement()] = network.getTo(eId);
+                    }
                 }
-            }
+            });
+            frontierSize = zeroFrontierSize.get();
+            swapFrontiers();
         }
     }
 
+    // 0-1 BFS processed by levels: 0-edges are expanded within the current level until it is closed,
+    // 1-edges fill the bucket of the next level; nodes that were lowered after being put there are skipped
     private void colorBfs() {
-        color.clear();
-        color.addAll(IntArrayList.newWithNValues(network.getNodeCount(), INF));
-
-        Deque<Integer> deque = new ArrayDeque<>();
-        deque.add(network.getRoot());
-        color.set(network.getRoot(), 0);
-
-        while (!deque.isEmpty()) {
-            int u = deque.pollFirst();
-            int dist = color.get(u);
-            IntList adjListU = network.getAdjacentEdgeIds(u);
-            for (int i = 0; i < adjListU.size(); i++) {
-                int eId = adjListU.get(i);
-                StateNetwork.Edge fwd = network.getEdge(eId);
-                if (fwd.getFlow() == 0 || (!fwd.hasAction() && !fwd.getTwin().hasAction())) {
-                    continue;
-                }
-                int to = fwd.getTo(), w = distance.get(u) < distance.get(to) ? 0 : 1;
-                if (dist + w < color.get(to) && dist + w < StateNetwork.INF) {
-                    color.set(to, dist + w);
-                    if (w == 1) {
-                        deque.addLast(to);
-                    } else {
-                        deque.addFirst(to);
+        Arrays.fill(color, INF);
+        color[network.getRoot()] = 0;
+        frontier[0] = network.getRoot();
+
+        int frontierSize = 1;
+        oneFrontierSize.set(0);
+        for (int level = 0; frontierSize > 0; level++) {
+            int curLevel = level;
+            while (frontierSize > 0) {
+                int[] cur = frontier, zero = zeroFrontier, one = oneFrontier;
+                zeroFrontierSize.set(0);
+                IntStream.range(0, frontierSize).parallel().forEach(k -> {
+                    int u = cur[k];
+                    if (color[u] != curLevel) {
+                        return;
                     }
-                }
+                    for (int i = adjListOffsets[u]; i < adjListOffsets[u + 1]; i++) {
+                        int eId = adjListEdgeIds[i];
+                        if (network.getFlow(eId) == 0 || !isActionPair(network, eId)) {
+                            continue;
+                        }
+                        int to = network.getTo(eId), w = distance[u] < distance[to] ? 0 : 1;
+                        if (tryLower(color, to, curLevel + w)) {
+                            if (w == 0) {
+                                zero[zeroFrontierSize.getAndIncrement()] = to;
+                            } else {
+                                one[oneFrontierSize.getAndIncrement()] = to;
+                            }
+                        }
+                    }
+                });
+                frontierSize = zeroFrontierSize.get();
+                swapFrontiers();
             }
+
+            int[] tmp = frontier;
+            frontier = oneFrontier;
+            oneFrontier = tmp;
+            frontierSize = oneFrontierSize.getAndSet(0);
         }
     }
 
     @Override
     public void optimizePaths() {
         distanceBfs();
-        for (int i = 1; i <= iterations; i++) {
-            colorBfs();
+        try (edgeStack; flowStack) {
+            for (int i = 1; i <= iterations; i++) {
+                colorBfs();
 
-            adjListPt.clear();
-            adjListPt.addAll(IntArrayList.newWithNValues(network.getNodeCount(), 0));
+                System.arraycopy(adjListOffsets, 0, adjListPt, 0, adjListPt.length);
 
-            boolean progress = false;
-            while (simpleCycleDfs(network.getRoot(), INF) != 0) {
-                progress = true;
-            }
-            if (!progress) {
-                break;
+                boolean progress = false;
+                while (simpleCycleDfs() != 0) {
+                    progress = true;
+                }
+                if (!progress) {
+                    break;
+                }
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 }
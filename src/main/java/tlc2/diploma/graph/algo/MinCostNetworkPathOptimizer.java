@@ -0,0 +1,132 @@
+package tlc2.diploma.graph.algo;
+
+import tlc2.diploma.graph.StateNetwork;
+import tlc2.diploma.util.SpillIntStack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import static tlc2.diploma.graph.StateNetwork.INF;
+
+/**
+ * Minimizes path count on any state graph. Only edges into the root have a cost (a unit per path end),
+ * so every negative residual cycle leaves the root through a cancelled path end and returns to it
+ * through a cancelled path start. Cancelling all of them at once is a max flow problem from the root
+ * to its own copy, which is solved here with Dinic blocking flows.
+ */
+public class MinCostNetworkPathOptimizer implements NetworkPathOptimizer {
+    private final StateNetwork network;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int root;
+    private final int target;
+
+    private final int[] distance;
+    private final int[] queue;
+    private final int[] adjListPt;
+    private final SpillIntStack edgeStack;
+    private final SpillIntStack flowStack;
+
+    public MinCostNetworkPathOptimizer(StateNetwork network) {
+        this.network = network;
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.root = network.getRoot();
+        this.target = network.getNodeCount();
+
+        this.distance = new int[network.getNodeCount() + 1];
+        this.queue = new int[network.getNodeCount()];
+        this.adjListPt = new int[network.getNodeCount()];
+        this.edgeStack = new SpillIntStack();
+        this.flowStack = new SpillIntStack();
+    }
+
+    // the root is split: it is left through backward edges only and entered as the target
+    private int head(int v, int eId) {
+        int to = network.getTo(eId);
+        if (v == root && StateNetwork.isForward(eId)) {
+            return -1;
+        }
+        if (to == root) {
+            return StateNetwork.isForward(eId) ? -1 : target;
+        }
+        return to;
+    }
+
+    private boolean bfs() {
+        Arrays.fill(distance, INF);
+        distance[root] = 0;
+
+        int queueLeft = 0, queueRight = 0;
+        queue[queueRight++] = root;
+        while (queueLeft < queueRight && distance[target] == INF) {
+            int cur = queue[queueLeft++];
+            int dist = distance[cur];
+            for (int i = adjListOffsets[cur]; i < adjListOffsets[cur + 1]; i++) {
+                int eId = adjListEdgeIds[i];
+                int to = head(cur, eId);
+                if (to != -1 && distance[to] == INF && network.getResidual(eId) > 0) {
+                    distance[to] = dist + 1;
+                    if (to != target) {
+                        queue[queueRight++] = to;
+                    }
+                }
+            }
+        }
+        return distance[target] < INF;
+    }
+
+    private int dfs() {
+        int v = root;
+        while (v != target) {
+            int dist = distance[v];
+            int flow = flowStack.isEmpty() ? INF : flowStack.peek();
+            boolean advanced = false;
+            for (; adjListPt[v] < adjListOffsets[v + 1]; adjListPt[v]++) {
+                int eId = adjListEdgeIds[adjListPt[v]];
+                int to = head(v, eId);
+                int cap = network.getResidual(eId);
+                if (to != -1 && distance[to] == dist + 1 && cap > 0) {
+                    edgeStack.push(eId);
+                    flowStack.push(Math.min(flow, cap));
+                    v = to;
+                    advanced = true;
+                    break;
+                }
+            }
+            if (!advanced) {
+                if (edgeStack.isEmpty()) {
+                    return 0;
+                }
+                int eId = edgeStack.pop();
+                flowStack.pop();
+                v = network.getFrom(eId);
+                adjListPt[v]++;
+            }
+        }
+
+        int df = flowStack.peek();
+        while (!edgeStack.isEmpty()) {
+            network.incFlow(edgeStack.pop(), df);
+            flowStack.pop();
+        }
+        return df;
+    }
+
+    @Override
+    public void optimizePaths() {
+        try (edgeStack; flowStack) {
+            while (bfs()) {
+                System.arraycopy(adjListOffsets, 0, adjListPt, 0, adjListPt.length);
+                while (true) {
+                    if (dfs() == 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,74 +1,116 @@
 package tlc2.diploma.graph.algo;
 
-import org.eclipse.collections.api.list.primitive.IntList;
-import org.eclipse.collections.api.list.primitive.MutableBooleanList;
-import org.eclipse.collections.impl.list.mutable.primitive.BooleanArrayList;
 import tlc2.diploma.graph.StateNetwork;
 
 public class NaiveMaxFlowSolver implements MaxFlowSolver {
-    private final StateNetwork network;
+    protected final StateNetwork network;
+    protected final int[] adjListOffsets;
+    protected final int[] adjListEdgeIds;
+    protected final int[] order;
+    protected final int orderSize;
 
-    private final MutableBooleanList used;
-
-    public NaiveMaxFlowSolver(StateNetwork network) {
+    public NaiveMaxFlowSolver(StateNetwork network, ParallelTopologicalSorter sorter) {
+        if (!sorter.isAcyclic()) {
+            throw new IllegalArgumentException("state graph must be acyclic");
+        }
         this.network = network;
-        this.used = BooleanArrayList.newWithNValues(network.getNodeCount(), false);
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.order = sorter.getOrder();
+        this.orderSize = sorter.getOrderSize();
     }
 
-    private int naiveDfs(int eId) {
-        StateNetwork.Edge edge = network.getEdge(eId);
-        int u = edge.getTo();
-        IntList adjListU = network.getAdjacentEdgeIds(u);
-
-        boolean deadEnd = true;
-        int sum = 0;
-        if (!used.get(u)) {
-            used.set(u, true);
-            for (int i = 0; i < adjListU.size(); i++) {
-                int j = adjListU.get(i);
-                StateNetwork.Edge e = network.getEdge(j);
-                if (!e.isForward() || !e.hasAction()) {
-                    continue;
+    protected boolean[] findReachable() {
+        boolean[] reachable = new boolean[network.getNodeCount()];
+        reachable[network.getRoot()] = true;
+        for (int i = 0; i < orderSize; i++) {
+            int u = order[i];
+            if (!reachable[u]) {
+                continue;
+            }
+            for (int j = adjListOffsets[u]; j < adjListOffsets[u + 1]; j++) {
+                int eId = adjListEdgeIds[j];
+                if (network.hasAction(eId)) {
+                    reachable[network.getTo(eId)] = true;
                 }
-                deadEnd = false;
-                sum += naiveDfs(j);
             }
         }
-        if (deadEnd) {
-            for (int i = 0; i < adjListU.size(); i++) {
-                int j = adjListU.get(i);
-                StateNetwork.Edge rootEdge = network.getEdge(j);
-                if (rootEdge.isForward() && rootEdge.getTo() == network.getRoot()) {
-                    network.incFlow(j, 1);
-                    sum += 1;
+        return reachable;
+    }
+
+    // every action edge gets flow at least 1, inflow that is not consumed by outgoing edges ends at the root edge
+    protected void balance(int u, boolean[] reachable) {
+        int outFlow = 0, inCount = 0, rootEdge = -1;
+        for (int j = adjListOffsets[u]; j < adjListOffsets[u + 1]; j++) {
+            int eId = adjListEdgeIds[j];
+            if (network.hasAction(eId)) {
+                if (network.getTo(eId) == u) {
+                    network.incFlow(eId, 1);
+                } else {
+                    outFlow += network.getFlow(eId);
                 }
+            } else if (StateNetwork.isForward(eId) && network.getTo(eId) == network.getRoot()) {
+                rootEdge = eId;
+            } else if (!StateNetwork.isForward(eId) && network.hasAction(StateNetwork.getTwin(eId))
+                    && network.getTo(eId) != u && reachable[network.getTo(eId)]) {
+                inCount++;
             }
         }
-        network.incFlow(eId, sum);
-        return sum;
-    }
 
-    @Override
-    public void findMaxFlow() {
-        used.set(network.getRoot(), true);
-        IntList adjListRoot = network.getAdjacentEdgeIds(network.getRoot());
-        for (int i = 0; i < adjListRoot.size(); i++) {
-            int eId = adjListRoot.get(i);
-            StateNetwork.Edge edge = network.getEdge(eId);
-            if (edge.isForward() && edge.hasAction()) {
-                naiveDfs(eId);
+        int inFlow = 0;
+        for (int j = adjListOffsets[u]; j < adjListOffsets[u + 1]; j++) {
+            int eId = adjListEdgeIds[j];
+            if (!StateNetwork.isForward(eId) && network.hasAction(StateNetwork.getTwin(eId))
+                    && network.getTo(eId) != u && reachable[network.getTo(eId)]) {
+                int flow = inFlow == 0 ? Math.max(1, outFlow - (inCount - 1)) : 1;
+                network.incFlow(StateNetwork.getTwin(eId), flow);
+                inFlow += flow;
             }
         }
+        network.incFlow(rootEdge, inFlow - outFlow);
+    }
 
-        for (int eId = 0; eId < network.getEdgeCount(); eId += 2) {
-            StateNetwork.Edge edge = network.getEdge(eId);
-            if (edge.hasAction()) {
-                network.incFlow(eId, -1);
+    protected void balanceAll(boolean[] reachable) {
+        for (int i = orderSize - 1; i >= 0; i--) {
+            int u = order[i];
+            if (reachable[u] && u != network.getRoot()) {
+                balance(u, reachable);
             }
-            if (edge.getFrom() == network.getSource() || edge.getTo() == network.getSink()) {
-                int cap = edge.getCapacity();
-                network.incFlow(eId, cap);
+        }
+    }
+
+    // the root is not balanced, but each of its self-loops needs a path of its own
+    protected void balanceRoot() {
+        int root = network.getRoot();
+        for (int j = adjListOffsets[root]; j < adjListOffsets[root + 1]; j++) {
+            int eId = adjListEdgeIds[j];
+            if (network.hasAction(eId) && network.getTo(eId) == root) {
+                network.incFlow(eId, 1);
             }
         }
     }
+
+    // shifts action edges by their lower bound of 1 and saturates source and sink edges
+    protected void finishFlow(int eId) {
+        if (network.hasAction(eId)) {
+            network.incFlow(eId, -1);
+        }
+        if (network.getFrom(eId) == network.getSource() || network.getTo(eId) == network.getSink()) {
+            int cap = network.getCapacity(eId);
+            network.incFlow(eId, cap);
+        }
+    }
+
+    protected void finishFlows() {
+        for (int eId = 0; eId < network.getEdgeCount(); eId += 2) {
+            finishFlow(eId);
+        }
+    }
+
+    @Override
+    public void findMaxFlow() {
+        balanceAll(findReachable());
+        balanceRoot();
+        finishFlows();
+    }
 }
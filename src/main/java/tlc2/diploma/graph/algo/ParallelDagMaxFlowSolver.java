@@ -0,0 +1,59 @@
+package tlc2.diploma.graph.algo;
+
+import tlc2.diploma.graph.StateNetwork;
+
+import java.util.stream.IntStream;
+
+/**
+ * Computes the same flow as {@link NaiveMaxFlowSolver}, but sweeps the topological levels in parallel.
+ * Nodes of one level are never adjacent, and each node only writes flows of its own incoming,
+ * self-loop and root edges, so nodes of a level can be balanced concurrently without synchronization.
+ */
+public class ParallelDagMaxFlowSolver extends NaiveMaxFlowSolver {
+    private final int[] levelOffsets;
+    private final int levelCount;
+
+    public ParallelDagMaxFlowSolver(StateNetwork network, ParallelTopologicalSorter sorter) {
+        super(network, sorter);
+        this.levelOffsets = sorter.getLevelOffsets();
+        this.levelCount = sorter.getLevelCount();
+    }
+
+    @Override
+    protected boolean[] findReachable() {
+        boolean[] reachable = new boolean[network.getNodeCount()];
+        reachable[network.getRoot()] = true;
+        for (int level = 0; level < levelCount; level++) {
+            IntStream.range(levelOffsets[level], levelOffsets[level + 1]).parallel().forEach(i -> {
+                int u = order[i];
+                if (!reachable[u]) {
+                    return;
+                }
+                for (int j = adjListOffsets[u]; j < adjListOffsets[u + 1]; j++) {
+                    int eId = adjListEdgeIds[j];
+                    if (network.hasAction(eId)) {
+                        reachable[network.getTo(eId)] = true;
+                    }
+                }
+            });
+        }
+        return reachable;
+    }
+
+    @Override
+    protected void balanceAll(boolean[] reachable) {
+        for (int level = levelCount - 1; level >= 0; level--) {
+            IntStream.range(levelOffsets[level], levelOffsets[level + 1]).parallel().forEach(i -> {
+                int u = order[i];
+                if (reachable[u] && u != network.getRoot()) {
+                    balance(u, reachable);
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void finishFlows() {
+        IntStream.range(0, network.getEdgeCount() / 2).parallel().forEach(i -> finishFlow(2 * i));
+    }
+}
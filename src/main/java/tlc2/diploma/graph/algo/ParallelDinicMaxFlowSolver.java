@@ -0,0 +1,65 @@
+package tlc2.diploma.graph.algo;
+
+import tlc2.diploma.graph.StateNetwork;
+import util.ToolIO;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static tlc2.diploma.graph.StateNetwork.INF;
+
+/**
+ * Dinic solver that builds the level graph with a parallel frontier expansion:
+ * every node of the current frontier is scanned concurrently and nodes of the next
+ * frontier are claimed by a CAS on their distance.
+ */
+public class ParallelDinicMaxFlowSolver extends DinicMaxFlowSolver {
+    private static final VarHandle DISTANCE = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private int[] frontier;
+    private int[] nextFrontier;
+
+    public ParallelDinicMaxFlowSolver(StateNetwork network) {
+        super(network);
+        this.frontier = new int[network.getNodeCount()];
+        this.nextFrontier = new int[network.getNodeCount()];
+    }
+
+    @Override
+    protected boolean dinicBfs() {
+        int source = network.getSource(), sink = network.getSink();
+
+        Arrays.fill(distance, INF);
+        distance[source] = 0;
+
+        frontier[0] = source;
+        int frontierSize = 1;
+        AtomicInteger nextFrontierSize = new AtomicInteger();
+        for (int dist = 0; frontierSize > 0 && distance[sink] == INF; dist++) {
+            int[] cur = frontier, next = nextFrontier;
+            int nextDist = dist + 1;
+            nextFrontierSize.set(0);
+            IntStream.range(0, frontierSize).parallel().forEach(i -> {
+                int u = cur[i];
+                for (int j = adjListOffsets[u]; j < adjListOffsets[u + 1]; j++) {
+                    int eId = adjListEdgeIds[j];
+                    int to = network.getTo(eId);
+                    if ((int) DISTANCE.getOpaque(distance, to) == INF && network.getResidual(eId) > 0
+                            && DISTANCE.compareAndSet(distance, to, INF, nextDist)) {
+                        next[nextFrontierSize.getAndIncrement()] = to;
+                    }
+                }
+            });
+            frontierSize = nextFrontierSize.get();
+            frontier = next;
+            nextFrontier = cur;
+        }
+
+        ToolIO.out.print(distance[sink] + " ");
+
+        return distance[sink] < INF;
+    }
+}
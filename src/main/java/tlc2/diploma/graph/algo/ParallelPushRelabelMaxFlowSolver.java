@@ -0,0 +1,188 @@
+package tlc2.diploma.graph.algo;
+
+import tlc2.TLCGlobals;
+import tlc2.diploma.graph.StateNetwork;
+import util.ToolIO;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free push-relabel solver in the style of Hong and He. Active nodes are discharged by tasks
+ * of a work-stealing pool, a node is owned by at most one task at a time. Excesses and heights
+ * are atomic, flows are pushed with a CAS on the edge store. A discharge pushes to the lowest
+ * residual neighbour only, which keeps the algorithm correct without locking edges.
+ * When enough relabel work is done, tasks park their nodes and a global relabel is run
+ * once the pool is quiescent. The pool has as many threads as TLC has workers.
+ */
+public class ParallelPushRelabelMaxFlowSolver implements MaxFlowSolver {
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int PARKED = 2;
+
+    private final StateNetwork network;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int nodeCount;
+
+    private final AtomicIntegerArray height;
+    private final AtomicIntegerArray excess;
+    private final AtomicIntegerArray state;
+    private final AtomicLong relabelWork;
+    private final long globalRelabelThreshold;
+    private final AtomicReference<Throwable> failure;
+    private ForkJoinPool pool;
+
+    public ParallelPushRelabelMaxFlowSolver(StateNetwork network) {
+        this.network = network;
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.nodeCount = network.getNodeCount();
+
+        this.height = new AtomicIntegerArray(nodeCount);
+        this.excess = new AtomicIntegerArray(nodeCount);
+        this.state = new AtomicIntegerArray(nodeCount);
+        this.relabelWork = new AtomicLong();
+        this.globalRelabelThreshold = (long) PushRelabelMaxFlowSolver.GLOBAL_RELABEL_NODE_WEIGHT * nodeCount
+                + network.getEdgeCount();
+        this.failure = new AtomicReference<>();
+    }
+
+    private void activate(int u) {
+        if (u != network.getSource() && u != network.getSink() && state.compareAndSet(u, IDLE, QUEUED)) {
+            pool.execute(() -> run(u));
+        }
+    }
+
+    private void run(int u) {
+        try {
+            while (discharge(u)) {
+                state.set(u, IDLE);
+                if (excess.get(u) == 0 || !state.compareAndSet(u, IDLE, QUEUED)) {
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    // returns false if the node was parked until the next global relabel
+    private boolean discharge(int u) {
+        while (excess.get(u) > 0) {
+            if (relabelWork.get() > globalRelabelThreshold) {
+                state.set(u, PARKED);
+                return false;
+            }
+
+            int lowestEdge = -1, lowestHeight = 2 * nodeCount;
+            for (int i = adjListOffsets[u]; i < adjListOffsets[u + 1]; i++) {
+                int eId = adjListEdgeIds[i];
+                if (network.getResidual(eId) > 0) {
+                    int h = height.get(network.getTo(eId));
+                    if (h < lowestHeight) {
+                        lowestHeight = h;
+                        lowestEdge = eId;
+                    }
+                }
+            }
+            if (lowestEdge == -1) {
+                throw new IllegalStateException("node " + u + " has excess but no residual edges");
+            }
+
+            if (height.get(u) > lowestHeight) {
+                int d = network.pushFlow(lowestEdge, excess.get(u));
+                if (d > 0) {
+                    int v = network.getTo(lowestEdge);
+                    excess.addAndGet(u, -d);
+                    excess.addAndGet(v, d);
+                    activate(v);
+                }
+            } else {
+                height.set(u, lowestHeight + 1);
+                relabelWork.addAndGet(adjListOffsets[u + 1] - adjListOffsets[u] + PushRelabelMaxFlowSolver.RELABEL_OVERHEAD);
+            }
+        }
+        return true;
+    }
+
+    // exact distances to the sink, or nodeCount + distance to the source for nodes cut off from the sink
+    private void globalRelabel() {
+        int[] h = new int[nodeCount];
+        Arrays.fill(h, 2 * nodeCount);
+        int[] queue = new int[nodeCount];
+        h[network.getSource()] = nodeCount;
+        relabelBfs(network.getSink(), 0, h, queue);
+        relabelBfs(network.getSource(), nodeCount, h, queue);
+        for (int u = 0; u < nodeCount; u++) {
+            height.set(u, h[u]);
+        }
+        relabelWork.set(0);
+    }
+
+    private void relabelBfs(int start, int startHeight, int[] h, int[] queue) {
+        int left = 0, right = 0;
+        h[start] = startHeight;
+        queue[right++] = start;
+        while (left < right) {
+            int v = queue[left++];
+            for (int i = adjListOffsets[v]; i < adjListOffsets[v + 1]; i++) {
+                int eId = adjListEdgeIds[i];
+                int u = network.getTo(eId);
+                if (h[u] == 2 * nodeCount && network.getResidual(StateNetwork.getTwin(eId)) > 0) {
+                    h[u] = h[v] + 1;
+                    queue[right++] = u;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void findMaxFlow() {
+        ToolIO.out.print("    ParallelPushRelabelMaxFlowSolver started\n    ");
+
+        int source = network.getSource();
+        for (int i = adjListOffsets[source]; i < adjListOffsets[source + 1]; i++) {
+            int eId = adjListEdgeIds[i];
+            int d = network.getResidual(eId);
+            if (d > 0) {
+                network.incFlow(eId, d);
+                excess.addAndGet(network.getTo(eId), d);
+            }
+        }
+
+        pool = new ForkJoinPool(TLCGlobals.getNumWorkers());
+        try {
+            boolean parked = true;
+            while (parked) {
+                globalRelabel();
+                for (int u = 0; u < nodeCount; u++) {
+                    if (state.get(u) == PARKED) {
+                        state.set(u, IDLE);
+                    }
+                    if (excess.get(u) > 0) {
+                        activate(u);
+                    }
+                }
+                pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.DAYS);
+                if (failure.get() != null) {
+                    throw new IllegalStateException("push-relabel task failed", failure.get());
+                }
+
+                parked = false;
+                for (int u = 0; u < nodeCount && !parked; u++) {
+                    parked = state.get(u) == PARKED;
+                }
+                ToolIO.out.print(".");
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        ToolIO.out.print("\n    ParallelPushRelabelMaxFlowSolver finished\n");
+    }
+}
@@ -0,0 +1,112 @@
+package tlc2.diploma.graph.algo;
+
+import tlc2.diploma.graph.StateNetwork;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Level-synchronous Kahn topological sort of the state graph (action edges only, self-loops are ignored).
+ * Every frontier is processed in parallel, nodes of level {@code k} are stored in the order array
+ * from {@code levelOffsets[k]} inclusive to {@code levelOffsets[k + 1]} exclusive.
+ */
+public class ParallelTopologicalSorter {
+    private final StateNetwork network;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+
+    private int[] order;
+    private int orderSize;
+    private int[] levelOffsets;
+
+    public ParallelTopologicalSorter(StateNetwork network) {
+        this.network = network;
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+    }
+
+    private boolean isOrderedEdge(int eId) {
+        return network.hasAction(eId) && network.getFrom(eId) != network.getTo(eId);
+    }
+
+    public void sort() {
+        int nodeCount = network.getNodeCount(), source = network.getSource(), sink = network.getSink();
+
+        AtomicIntegerArray inDegree = new AtomicIntegerArray(nodeCount);
+        IntStream.range(0, network.getEdgeCount() / 2).parallel().forEach(i -> {
+            if (isOrderedEdge(2 * i)) {
+                inDegree.incrementAndGet(network.getTo(2 * i));
+            }
+        });
+
+        int[] order = new int[nodeCount];
+        AtomicInteger orderEnd = new AtomicInteger();
+        IntStream.range(0, nodeCount).parallel().forEach(u -> {
+            if (u != source && u != sink && inDegree.get(u) == 0) {
+                order[orderEnd.getAndIncrement()] = u;
+            }
+        });
+
+        int[] levelOffsets = new int[16];
+        int levelCount = 0;
+        int levelStart = 0;
+        while (levelStart < orderEnd.get()) {
+            int levelEnd = orderEnd.get();
+            if (levelCount + 2 > levelOffsets.length) {
+                levelOffsets = Arrays.copyOf(levelOffsets, 2 * levelOffsets.length);
+            }
+            levelOffsets[levelCount++] = levelStart;
+            IntStream.range(levelStart, levelEnd).parallel().forEach(i -> {
+                int u = order[i];
+                for (int j = adjListOffsets[u]; j < adjListOffsets[u + 1]; j++) {
+                    int eId = adjListEdgeIds[j];
+                    if (isOrderedEdge(eId) && inDegree.decrementAndGet(network.getTo(eId)) == 0) {
+                        order[orderEnd.getAndIncrement()] = network.getTo(eId);
+                    }
+                }
+            });
+            levelStart = levelEnd;
+        }
+        levelOffsets[levelCount] = levelStart;
+
+        this.order = order;
+        this.orderSize = levelStart;
+        this.levelOffsets = Arrays.copyOf(levelOffsets, levelCount + 1);
+    }
+
+    private void ensureSorted() {
+        if (order == null) {
+            throw new IllegalStateException("topological sort has not been run yet");
+        }
+    }
+
+    /**
+     * Returns {@code true} if every state was ordered, i.e. the state graph has no cycles.
+     */
+    public boolean isAcyclic() {
+        ensureSorted();
+        return orderSize == network.getNodeCount() - 2;
+    }
+
+    public int[] getOrder() {
+        ensureSorted();
+        return order;
+    }
+
+    public int getOrderSize() {
+        ensureSorted();
+        return orderSize;
+    }
+
+    public int getLevelCount() {
+        ensureSorted();
+        return levelOffsets.length - 1;
+    }
+
+    public int[] getLevelOffsets() {
+        ensureSorted();
+        return levelOffsets;
+    }
+}
@@ -1,87 +1,221 @@
 package tlc2.diploma.graph.algo;
 
-import org.eclipse.collections.api.list.primitive.IntList;
 import tlc2.diploma.graph.StateNetwork;
+import util.ToolIO;
 
-import java.util.*;
-
-import static tlc2.diploma.graph.StateNetwork.INF;
+import java.util.Arrays;
 
+/**
+ * FIFO push-relabel solver with gap and global relabeling heuristics.
+ * Nodes with height below the node count are kept in per-height buckets so that a gap
+ * can lift every node above it without scanning the whole network.
+ */
 public class PushRelabelMaxFlowSolver implements MaxFlowSolver {
+    // Weights of the global relabeling heuristic from Cherkassky and Goldberg: a relabel costs its edge scan
+    // plus a fixed overhead, and heights are recomputed once the work since the last update exceeds 6n + m.
+    static final int RELABEL_OVERHEAD = 12;
+    static final int GLOBAL_RELABEL_NODE_WEIGHT = 6;
+
     private final StateNetwork network;
-    // TODO: List<Integer> -> IntList
-    private final List<Integer> height;
-    private final List<Integer> excess;
-    private final List<Integer> adjListPt;
-    private final Queue<Integer> excessQueue;
+    private final int[] adjListOffsets;
+    private final int[] adjListEdgeIds;
+    private final int nodeCount;
+
+    private final int[] height;
+    private final int[] excess;
+    private final int[] adjListPt;
 
+    private final int[] queue;
+    private int queueHead;
+    private int queueSize;
+    private final boolean[] inQueue;
+
+    private final int[] bucketHead;
+    private final int[] bucketNext;
+    private final int[] bucketPrev;
+    private int maxBucket;
+
+    private long relabelWork;
 
     public PushRelabelMaxFlowSolver(StateNetwork network) {
         this.network = network;
+        this.adjListOffsets = network.getAdjListOffsets();
+        this.adjListEdgeIds = network.getAdjListEdgeIds();
+        this.nodeCount = network.getNodeCount();
+
+        this.height = new int[nodeCount];
+        this.excess = new int[nodeCount];
+        this.adjListPt = new int[nodeCount];
+
+        this.queue = new int[nodeCount];
+        this.inQueue = new boolean[nodeCount];
+
+        this.bucketHead = new int[nodeCount];
+        this.bucketNext = new int[nodeCount];
+        this.bucketPrev = new int[nodeCount];
+    }
+
+    private void enqueue(int u) {
+        if (inQueue[u] || u == network.getSource() || u == network.getSink()) {
+            return;
+        }
+        inQueue[u] = true;
+        queue[(queueHead + queueSize++) % nodeCount] = u;
+    }
+
+    private int dequeue() {
+        int u = queue[queueHead];
+        queueHead = (queueHead + 1) % nodeCount;
+        queueSize--;
+        inQueue[u] = false;
+        return u;
+    }
+
+    private void addToBucket(int u) {
+        int h = height[u];
+        if (h >= nodeCount) {
+            return;
+        }
+        bucketPrev[u] = -1;
+        bucketNext[u] = bucketHead[h];
+        if (bucketHead[h] != -1) {
+            bucketPrev[bucketHead[h]] = u;
+        }
+        bucketHead[h] = u;
+        maxBucket = Math.max(maxBucket, h);
+    }
+
+    private void removeFromBucket(int u) {
+        int h = height[u];
+        if (h >= nodeCount) {
+            return;
+        }
+        if (bucketPrev[u] != -1) {
+            bucketNext[bucketPrev[u]] = bucketNext[u];
+        } else {
+            bucketHead[h] = bucketNext[u];
+        }
+        if (bucketNext[u] != -1) {
+            bucketPrev[bucketNext[u]] = bucketPrev[u];
+        }
+    }
+
+    // assigns exact distances to the sink, or nodeCount + distance to the source for nodes cut off from the sink
+    private void globalRelabel() {
+        Arrays.fill(height, 2 * nodeCount);
+        Arrays.fill(bucketHead, -1);
+        maxBucket = 0;
+
+        int[] bfsQueue = new int[nodeCount];
+        height[network.getSource()] = nodeCount;
+        relabelBfs(network.getSink(), 0, bfsQueue);
+        relabelBfs(network.getSource(), nodeCount, bfsQueue);
 
-        this.height = new ArrayList<>(Collections.nCopies(network.getNodeCount(), 0));
-        this.height.set(network.getSource(), network.getNodeCount());
-        this.excess = new ArrayList<>(Collections.nCopies(network.getNodeCount(), 0));
-        this.excess.set(network.getSource(), INF);
-        this.adjListPt = new ArrayList<>(Collections.nCopies(network.getNodeCount(), 0));
-        this.excessQueue = new ArrayDeque<>();
+        System.arraycopy(adjListOffsets, 0, adjListPt, 0, nodeCount);
+        relabelWork = 0;
+    }
 
-        network.getAdjacentEdgeIds(network.getSource()).forEach(this::push);
+    private void relabelBfs(int start, int startHeight, int[] bfsQueue) {
+        int left = 0, right = 0;
+        height[start] = startHeight;
+        addToBucket(start);
+        bfsQueue[right++] = start;
+        while (left < right) {
+            int v = bfsQueue[left++];
+            for (int i = adjListOffsets[v]; i < adjListOffsets[v + 1]; i++) {
+                int eId = adjListEdgeIds[i];
+                int u = network.getTo(eId);
+                if (height[u] == 2 * nodeCount && network.getResidual(StateNetwork.getTwin(eId)) > 0) {
+                    height[u] = height[v] + 1;
+                    addToBucket(u);
+                    bfsQueue[right++] = u;
+                }
+            }
+        }
+    }
+
+    private void gap(int h) {
+        for (int g = h + 1; g <= maxBucket; g++) {
+            for (int v = bucketHead[g]; v != -1; v = bucketNext[v]) {
+                height[v] = nodeCount + 1;
+                adjListPt[v] = adjListOffsets[v];
+            }
+            bucketHead[g] = -1;
+        }
+        maxBucket = h - 1;
     }
 
     private void push(int eId) {
-        StateNetwork.Edge e = network.getEdge(eId);
-        int u = e.getFrom(), v = e.getTo();
-        int d = Math.min(excess.get(u), e.getCapacity() - e.getFlow());
+        int u = network.getFrom(eId), v = network.getTo(eId);
+        int d = Math.min(excess[u], network.getResidual(eId));
         network.incFlow(eId, d);
-        excess.set(u, excess.get(u) - d);
-        excess.set(v, excess.get(v) + d);
-        if (d > 0 && excess.get(v) == d) {
-            excessQueue.add(v);
-        }
+        excess[u] -= d;
+        excess[v] += d;
+        enqueue(v);
     }
 
     private void relabel(int u) {
-        int d = INF;
-        IntList adjListU = network.getAdjacentEdgeIds(u);
-        for (int i = 0; i < adjListU.size(); i++) {
-            int eId = adjListU.get(i);
-            StateNetwork.Edge e = network.getEdge(eId);
-            if (e.getCapacity() - e.getFlow() > 0) {
-                d = Math.min(d, height.get(e.getTo()));
+        int oldHeight = height[u];
+        int newHeight = 2 * nodeCount;
+        for (int i = adjListOffsets[u]; i < adjListOffsets[u + 1]; i++) {
+            int eId = adjListEdgeIds[i];
+            if (network.getResidual(eId) > 0) {
+                newHeight = Math.min(newHeight, height[network.getTo(eId)] + 1);
             }
         }
-        if (d < INF) {
-            height.set(u, d + 1);
+        relabelWork += adjListOffsets[u + 1] - adjListOffsets[u] + RELABEL_OVERHEAD;
+
+        removeFromBucket(u);
+        if (oldHeight < nodeCount && bucketHead[oldHeight] == -1) {
+            height[u] = Math.max(newHeight, nodeCount + 1);
+            gap(oldHeight);
+        } else {
+            height[u] = newHeight;
+            addToBucket(u);
         }
+        adjListPt[u] = adjListOffsets[u];
     }
 
     private void discharge(int u) {
-        while (excess.get(u) > 0) {
-            int pt = adjListPt.get(u);
-            IntList adjListU = network.getAdjacentEdgeIds(u);
-            if (pt < adjListU.size()) {
-                int eId = adjListU.get(pt);
-                StateNetwork.Edge e = network.getEdge(eId);
-                if (e.getCapacity() - e.getFlow() > 0 && height.get(e.getFrom()) > height.get(e.getTo())) {
-                    push(eId);
-                } else {
-                    adjListPt.set(u, pt + 1);
-                }
-            } else {
+        while (excess[u] > 0) {
+            int pt = adjListPt[u];
+            if (pt == adjListOffsets[u + 1]) {
                 relabel(u);
-                adjListPt.set(u, 0);
+                continue;
+            }
+            int eId = adjListEdgeIds[pt];
+            if (network.getResidual(eId) > 0 && height[u] == height[network.getTo(eId)] + 1) {
+                push(eId);
+            } else {
+                adjListPt[u] = pt + 1;
             }
         }
     }
 
     @Override
     public void findMaxFlow() {
-        while (!excessQueue.isEmpty()) {
-            int u = excessQueue.poll();
-            if (u != network.getSource() && u != network.getSink()) {
-                discharge(u);
+        ToolIO.out.print("    PushRelabelMaxFlowSolver started\n");
+
+        int source = network.getSource();
+        for (int i = adjListOffsets[source]; i < adjListOffsets[source + 1]; i++) {
+            int eId = adjListEdgeIds[i];
+            int d = network.getResidual(eId);
+            if (d > 0) {
+                network.incFlow(eId, d);
+                excess[network.getTo(eId)] += d;
+                enqueue(network.getTo(eId));
             }
         }
+        globalRelabel();
+
+        long globalRelabelThreshold = (long) GLOBAL_RELABEL_NODE_WEIGHT * nodeCount + network.getEdgeCount();
+        while (queueSize > 0) {
+            discharge(dequeue());
+            if (relabelWork > globalRelabelThreshold) {
+                globalRelabel();
+            }
+        }
+
+        ToolIO.out.print("    PushRelabelMaxFlowSolver finished\n");
     }
 }
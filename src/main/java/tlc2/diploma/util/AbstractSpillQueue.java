@@ -0,0 +1,104 @@
+package tlc2.diploma.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Future;
+
+/**
+ * FIFO queue of fixed-width elements. Full blocks behind the head stay in memory while the budget
+ * allows; once a block had to be spilled, later blocks are spilled too until the disk part is drained,
+ * which keeps the order. Spilled blocks are written behind and read ahead of the head.
+ */
+abstract class AbstractSpillQueue implements Closeable {
+    private final SpillFile file = new SpillFile();
+    private final Deque<ByteBuffer> front = new ArrayDeque<>();
+    private ByteBuffer head;
+    protected int headPos;
+    private ByteBuffer tail;
+    private long diskRead = 0;
+    private long diskWrite = 0;
+    private ByteBuffer prefetched;
+    private Future<?> prefetch;
+    protected long size = 0;
+
+    private int headEnd() {
+        return head == tail ? tail.position() : head.capacity();
+    }
+
+    protected ByteBuffer blockForOffer() {
+        if (tail == null) {
+            tail = file.allocate();
+            head = tail;
+            headPos = 0;
+        }
+        if (!tail.hasRemaining()) {
+            if (head != tail) {
+                if (diskRead == diskWrite && file.tryAcquireBlock()) {
+                    front.addLast(tail);
+                } else {
+                    file.writeBehind(diskWrite++, tail);
+                }
+            }
+            tail = file.allocate();
+        }
+        return tail;
+    }
+
+    protected ByteBuffer blockForPoll() {
+        if (size == 0) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        if (headPos == headEnd()) {
+            file.release(head);
+            if (!front.isEmpty()) {
+                head = front.pollFirst();
+                file.releaseBlock();
+            } else if (diskRead < diskWrite) {
+                if (prefetch == null) {
+                    prefetched = file.allocate();
+                    prefetch = file.read(diskRead, prefetched);
+                }
+                SpillFile.await(prefetch);
+                head = prefetched;
+                prefetch = null;
+                prefetched = null;
+                if (++diskRead == diskWrite) {
+                    diskRead = 0;
+                    diskWrite = 0;
+                }
+            } else {
+                head = tail;
+            }
+            headPos = 0;
+        }
+        if (front.isEmpty() && diskRead < diskWrite && prefetch == null) {
+            prefetched = file.allocate();
+            prefetch = file.read(diskRead, prefetched);
+        }
+        return head;
+    }
+
+    boolean isSpilled() {
+        return file.isSpilled();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (prefetch != null) {
+            SpillFile.await(prefetch);
+        }
+        front.clear();
+        file.close();
+    }
+}
@@ -0,0 +1,105 @@
+package tlc2.diploma.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Future;
+
+/**
+ * Stack of fixed-width elements whose top blocks are kept in memory. When the budget is exhausted
+ * the bottom hot block is written behind, and while the stack shrinks the next spilled block
+ * is read ahead, so that popping rarely waits for the disk.
+ */
+abstract class AbstractSpillStack implements Closeable {
+    private static final int MIN_HOT_BLOCKS = 2;
+
+    private final SpillFile file = new SpillFile();
+    private final Deque<ByteBuffer> hot = new ArrayDeque<>();
+    private long spilledBlocks = 0;
+    private ByteBuffer prefetched;
+    private Future<?> prefetch;
+    protected long size = 0;
+
+    private void startPrefetch() {
+        prefetched = file.allocate();
+        prefetch = file.read(spilledBlocks - 1, prefetched);
+    }
+
+    private void dropPrefetch() {
+        if (prefetch != null) {
+            SpillFile.await(prefetch);
+            file.release(prefetched);
+            prefetch = null;
+            prefetched = null;
+        }
+    }
+
+    private void removeTop() {
+        file.release(hot.pollLast());
+        if (hot.size() >= MIN_HOT_BLOCKS) {
+            file.releaseBlock();
+        }
+    }
+
+    protected ByteBuffer blockForPush() {
+        ByteBuffer top = hot.peekLast();
+        if (top != null && top.hasRemaining()) {
+            return top;
+        }
+        if (hot.size() >= MIN_HOT_BLOCKS && !file.tryAcquireBlock()) {
+            dropPrefetch();
+            file.writeBehind(spilledBlocks++, hot.pollFirst());
+        }
+        ByteBuffer block = file.allocate();
+        hot.addLast(block);
+        return block;
+    }
+
+    protected ByteBuffer blockForPop() {
+        if (size == 0) {
+            throw new IllegalStateException("Stack is empty");
+        }
+        ByteBuffer top = hot.peekLast();
+        if (top != null && top.position() == 0) {
+            removeTop();
+            top = hot.peekLast();
+        }
+        if (top == null) {
+            if (prefetch == null) {
+                startPrefetch();
+            }
+            SpillFile.await(prefetch);
+            top = prefetched;
+            top.position(top.capacity());
+            prefetch = null;
+            prefetched = null;
+            spilledBlocks--;
+            hot.addLast(top);
+        }
+        if (hot.size() == 1 && spilledBlocks > 0 && prefetch == null) {
+            startPrefetch();
+        }
+        return top;
+    }
+
+    boolean isSpilled() {
+        return file.isSpilled();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dropPrefetch();
+        hot.clear();
+        file.close();
+    }
+}
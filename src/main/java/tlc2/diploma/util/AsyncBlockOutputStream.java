@@ -0,0 +1,182 @@
+package tlc2.diploma.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output stream that collects bytes into pooled blocks and hands full blocks to a background thread,
+ * so the writing thread only copies bytes. At most a few blocks are in flight: when all of them are,
+ * the writing thread waits for the background one.
+ * <p>
+ * The stream is not thread-safe.
+ */
+public abstract class AsyncBlockOutputStream extends OutputStream {
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final ExecutorService executor;
+    private final BlockingQueue<byte[]> freeBlocks;
+    private int allocatedBlocks = 0;
+    private byte[] block;
+    private int size = 0;
+    private boolean closed = false;
+    private volatile IOException failure;
+
+    protected AsyncBlockOutputStream(int blockSize, int maxPendingBlocks, String threadName) {
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = maxPendingBlocks;
+        this.freeBlocks = new ArrayBlockingQueue<>(maxPendingBlocks + 1);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Writes a block, called on the background thread.
+     */
+    protected abstract void writeBlock(byte[] data, int size) throws IOException;
+
+    /**
+     * Flushes the underlying output, called on the background thread.
+     */
+    protected abstract void flushOutput() throws IOException;
+
+    /**
+     * Closes the underlying output once all blocks are written, {@code failed} tells whether one of them was not.
+     */
+    protected abstract void closeOutput(boolean failed) throws IOException;
+
+    private byte[] takeBlock() throws IOException {
+        byte[] free = freeBlocks.poll();
+        if (free != null) {
+            return free;
+        }
+        if (allocatedBlocks <= maxPendingBlocks) {
+            allocatedBlocks++;
+            return new byte[blockSize];
+        }
+        try {
+            return freeBlocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + getClass().getSimpleName());
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException(getClass().getSimpleName() + " failed", failure);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        checkFailure();
+        byte[] data = block;
+        int dataSize = size;
+        executor.execute(() -> {
+            try {
+                if (failure == null) {
+                    writeBlock(data, dataSize);
+                }
+            } catch (Throwable e) {
+                // anything that escapes would only end the task silently and the data would be lost unnoticed
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            } finally {
+                freeBlocks.add(data);
+            }
+        });
+        block = null;
+        size = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (block == null) {
+            block = takeBlock();
+        }
+        block[size++] = (byte) b;
+        if (size == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (block == null) {
+                block = takeBlock();
+            }
+            int n = Math.min(len, blockSize - size);
+            System.arraycopy(b, off, block, size, n);
+            size += n;
+            off += n;
+            len -= n;
+            if (size == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered bytes to the background thread as a smaller block and waits until everything is written.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (size > 0) {
+            submitBlock();
+        }
+        try {
+            executor.submit(() -> {
+                if (failure == null) {
+                    flushOutput();
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while flushing " + getClass().getSimpleName());
+        } catch (ExecutionException e) {
+            throw new IOException(getClass().getSimpleName() + " flush failed", e.getCause());
+        }
+        checkFailure();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (size > 0) {
+                submitBlock();
+            }
+        } finally {
+            closed = true;
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            closeOutput(failure != null);
+        }
+        checkFailure();
+    }
+}
@@ -0,0 +1,88 @@
+package tlc2.diploma.util;
+
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+/**
+ * Bounded set of longs that evicts the least recently used key once it is full.
+ * Keys are kept in a doubly linked list over fixed arrays, so the set allocates nothing after it fills up.
+ */
+public class LongLruSet {
+    private final LongIntHashMap slots;
+    private final long[] keys;
+    private final int[] prev;
+    private final int[] next;
+    private int head = -1;
+    private int tail = -1;
+    private int size = 0;
+
+    public LongLruSet(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.slots = new LongIntHashMap(capacity);
+        this.keys = new long[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+    }
+
+    private void unlink(int slot) {
+        if (prev[slot] != -1) {
+            next[prev[slot]] = next[slot];
+        } else {
+            head = next[slot];
+        }
+        if (next[slot] != -1) {
+            prev[next[slot]] = prev[slot];
+        } else {
+            tail = prev[slot];
+        }
+    }
+
+    private void linkFirst(int slot) {
+        prev[slot] = -1;
+        next[slot] = head;
+        if (head != -1) {
+            prev[head] = slot;
+        }
+        head = slot;
+        if (tail == -1) {
+            tail = slot;
+        }
+    }
+
+    /**
+     * Marks the key as the most recently used one.
+     *
+     * @return {@code true} if the key was not in the set
+     */
+    public boolean add(long key) {
+        int slot = slots.getIfAbsent(key, -1);
+        if (slot != -1) {
+            if (slot != head) {
+                unlink(slot);
+                linkFirst(slot);
+            }
+            return false;
+        }
+
+        if (size < keys.length) {
+            slot = size++;
+        } else {
+            slot = tail;
+            unlink(slot);
+            slots.removeKey(keys[slot]);
+        }
+        keys[slot] = key;
+        slots.put(key, slot);
+        linkFirst(slot);
+        return true;
+    }
+
+    public boolean contains(long key) {
+        return slots.containsKey(key);
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,244 @@
+package tlc2.diploma.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format and the parts of the LZ4 frame format
+ * used by {@link Lz4FrameOutputStream} and {@link Lz4FrameInputStream}.
+ * Compression is greedy with a single hash table of recent positions, which trades some ratio for speed.
+ */
+public class Lz4Codec {
+    static final int FRAME_MAGIC = 0x184D2204;
+    static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+    static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    static final int MAX_BLOCK_SIZE = 1 << 16;
+    static final int UNCOMPRESSED_FLAG = 0x80000000;
+    static final int HASH_LOG = 14;
+    static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = (1 << 16) - 1;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME4 = 0x27D4EB2F;
+    private static final int PRIME5 = 0x165667B1;
+
+    private Lz4Codec() {
+    }
+
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    static int readIntLE(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | (buf[off + 1] & 0xFF) << 8 | (buf[off + 2] & 0xFF) << 16 | (buf[off + 3] & 0xFF) << 24;
+    }
+
+    static void writeIntLE(byte[] buf, int off, int value) {
+        buf[off] = (byte) value;
+        buf[off + 1] = (byte) (value >>> 8);
+        buf[off + 2] = (byte) (value >>> 16);
+        buf[off + 3] = (byte) (value >>> 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * PRIME1) >>> (Integer.SIZE - HASH_LOG);
+    }
+
+    private static int writeLength(int length, byte[] dst, int dOff) {
+        while (length >= 0xFF) {
+            dst[dOff++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        dst[dOff++] = (byte) length;
+        return dOff;
+    }
+
+    private static int writeLiterals(byte[] src, int literalOff, int literalLength, int matchToken, byte[] dst, int dOff) {
+        int token = dOff++;
+        dst[token] = (byte) (Math.min(literalLength, 0xF) << 4 | matchToken);
+        if (literalLength >= 0xF) {
+            dOff = writeLength(literalLength - 0xF, dst, dOff);
+        }
+        System.arraycopy(src, literalOff, dst, dOff, literalLength);
+        return dOff + literalLength;
+    }
+
+    /**
+     * Compresses {@code src[srcOff, srcOff + srcLen)} into a single LZ4 block, {@code dst} must have
+     * at least {@link #maxCompressedLength} bytes after {@code dstOff}.
+     *
+     * @param hashTable scratch table of {@link #HASH_TABLE_SIZE} entries
+     * @return length of the compressed block
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] hashTable) {
+        int srcEnd = srcOff + srcLen;
+        int dOff = dstOff;
+        int anchor = srcOff;
+
+        if (srcLen > MF_LIMIT) {
+            Arrays.fill(hashTable, -1);
+            int matchLimit = srcEnd - LAST_LITERALS;
+            int mfLimit = srcEnd - MF_LIMIT;
+            int sOff = srcOff;
+            while (sOff < mfLimit) {
+                int sequence = readIntLE(src, sOff);
+                int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = sOff;
+                if (ref == -1 || sOff - ref > MAX_DISTANCE || readIntLE(src, ref) != sequence) {
+                    // the longer nothing matches, the faster incompressible data is skipped
+                    sOff += 1 + ((sOff - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+
+                while (sOff > anchor && ref > srcOff && src[sOff - 1] == src[ref - 1]) {
+                    sOff--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (sOff + matchLength < matchLimit && src[sOff + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                int matchToken = Math.min(matchLength - MIN_MATCH, 0xF);
+                dOff = writeLiterals(src, anchor, sOff - anchor, matchToken, dst, dOff);
+                int distance = sOff - ref;
+                dst[dOff++] = (byte) distance;
+                dst[dOff++] = (byte) (distance >>> 8);
+                if (matchToken == 0xF) {
+                    dOff = writeLength(matchLength - MIN_MATCH - 0xF, dst, dOff);
+                }
+
+                sOff += matchLength;
+                anchor = sOff;
+                if (sOff < mfLimit) {
+                    hashTable[hash(readIntLE(src, sOff - 2))] = sOff - 2;
+                }
+            }
+        }
+
+        dOff = writeLiterals(src, anchor, srcEnd - anchor, 0, dst, dOff);
+        return dOff - dstOff;
+    }
+
+    /**
+     * Decompresses a single LZ4 block into {@code dst[dstOff, dstOff + dstCapacity)}.
+     *
+     * @return length of the decompressed data
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstCapacity)
+            throws IOException {
+        int srcEnd = srcOff + srcLen;
+        int dstEnd = dstOff + dstCapacity;
+        int sOff = srcOff, dOff = dstOff;
+        while (true) {
+            if (sOff >= srcEnd) {
+                throw new IOException("malformed LZ4 block: missing token");
+            }
+            int token = src[sOff++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 0xF) {
+                int b;
+                do {
+                    if (sOff >= srcEnd) {
+                        throw new IOException("malformed LZ4 block: truncated literal length");
+                    }
+                    b = src[sOff++] & 0xFF;
+                    literalLength += b;
+                } while (b == 0xFF);
+            }
+            if (literalLength > srcEnd - sOff || literalLength > dstEnd - dOff) {
+                throw new IOException("malformed LZ4 block: literals out of bounds");
+            }
+            System.arraycopy(src, sOff, dst, dOff, literalLength);
+            sOff += literalLength;
+            dOff += literalLength;
+            if (sOff == srcEnd) {
+                return dOff - dstOff;
+            }
+
+            if (srcEnd - sOff < 2) {
+                throw new IOException("malformed LZ4 block: truncated offset");
+            }
+            int distance = (src[sOff] & 0xFF) | (src[sOff + 1] & 0xFF) << 8;
+            sOff += 2;
+            int matchLength = token & 0xF;
+            if (matchLength == 0xF) {
+                int b;
+                do {
+                    if (sOff >= srcEnd) {
+                        throw new IOException("malformed LZ4 block: truncated match length");
+                    }
+                    b = src[sOff++] & 0xFF;
+                    matchLength += b;
+                } while (b == 0xFF);
+            }
+            matchLength += MIN_MATCH;
+            if (distance == 0 || distance > dOff - dstOff || matchLength > dstEnd - dOff) {
+                throw new IOException("malformed LZ4 block: match out of bounds");
+            }
+            int ref = dOff - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(dst, ref, dst, dOff, matchLength);
+                dOff += matchLength;
+            } else {
+                for (int i = 0; i < matchLength; i++) {
+                    dst[dOff++] = dst[ref++];
+                }
+            }
+        }
+    }
+
+    /**
+     * xxHash32 of a short input, which is all the frame descriptor checksum needs.
+     */
+    static int xxHash32(byte[] buf, int off, int len, int seed) {
+        if (len >= 16) {
+            throw new IllegalArgumentException("only inputs shorter than 16 bytes are supported");
+        }
+        int end = off + len;
+        int h = seed + PRIME5 + len;
+        for (; off + 4 <= end; off += 4) {
+            h += readIntLE(buf, off) * PRIME3;
+            h = Integer.rotateLeft(h, 17) * PRIME4;
+        }
+        for (; off < end; off++) {
+            h += (buf[off] & 0xFF) * PRIME5;
+            h = Integer.rotateLeft(h, 11) * PRIME1;
+        }
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Header of a frame of independent blocks of at most {@link #MAX_BLOCK_SIZE} bytes without checksums.
+     */
+    static byte[] frameHeader() {
+        byte[] header = new byte[7];
+        writeIntLE(header, 0, FRAME_MAGIC);
+        header[4] = 0x60; // version 01, independent blocks
+        header[5] = 0x40; // 64 KiB blocks
+        header[6] = (byte) (xxHash32(header, 4, 2, 0) >>> 8);
+        return header;
+    }
+
+    static int getMaxBlockSize(int blockDescriptor) throws IOException {
+        int sizeId = (blockDescriptor >>> 4) & 0x7;
+        if (sizeId < 4) {
+            throw new IOException("malformed LZ4 frame: unknown block size id " + sizeId);
+        }
+        return 1 << (8 + 2 * sizeId);
+    }
+}
@@ -0,0 +1,213 @@
+package tlc2.diploma.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads LZ4 frames written by {@link Lz4FrameOutputStream} or by the {@code lz4} command line tool.
+ * Concatenated and skippable frames are supported, checksums are skipped without verification.
+ * <p>
+ * Reading can later be resumed at the current block: {@link #resume} continues from the
+ * {@link #getBlockPosition() position} of a block in the compressed stream, given the
+ * {@link #getFrameDescriptor() descriptor} of its frame.
+ */
+public class Lz4FrameInputStream extends InputStream {
+    private final InputStream in;
+    private final byte[] header = new byte[Long.BYTES];
+    private byte[] compressed = new byte[0];
+    private byte[] block = new byte[0];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean blockChecksum;
+    private boolean contentChecksum;
+    private int frameDescriptor;
+    private boolean finished;
+    // bytes consumed from the compressed stream, and where the current block starts in it
+    private long position = 0;
+    private long blockPosition;
+
+    public Lz4FrameInputStream(InputStream in) throws IOException {
+        this.in = in;
+        if (!readFrameHeader()) {
+            throw new EOFException("empty LZ4 stream");
+        }
+        this.blockPosition = position;
+    }
+
+    private Lz4FrameInputStream(InputStream in, int frameDescriptor) throws IOException {
+        this.in = in;
+        setFrameDescriptor(frameDescriptor);
+    }
+
+    /**
+     * Continues reading a stream at a block, {@code in} must be positioned at the start of the block.
+     */
+    public static Lz4FrameInputStream resume(InputStream in, int frameDescriptor) throws IOException {
+        return new Lz4FrameInputStream(in, frameDescriptor);
+    }
+
+    /**
+     * Returns the position of the current block in the compressed stream, relative to where this stream started.
+     */
+    public long getBlockPosition() {
+        return blockPosition;
+    }
+
+    /**
+     * Returns the number of bytes already read from the current block.
+     */
+    public int getBlockOffset() {
+        return pos;
+    }
+
+    /**
+     * Returns the flag and block descriptor bytes of the current frame.
+     */
+    public int getFrameDescriptor() {
+        return frameDescriptor;
+    }
+
+    private boolean readFully(byte[] buf, int len, boolean eofAllowed) throws IOException {
+        int n = in.readNBytes(buf, 0, len);
+        position += n;
+        if (n == 0 && eofAllowed) {
+            return false;
+        }
+        if (n != len) {
+            throw new EOFException("truncated LZ4 frame");
+        }
+        return true;
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("truncated LZ4 frame");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+            position += skipped;
+        }
+    }
+
+    private boolean readFrameHeader() throws IOException {
+        while (true) {
+            if (!readFully(header, Integer.BYTES, true)) {
+                return false;
+            }
+            int magic = Lz4Codec.readIntLE(header, 0);
+            if ((magic & Lz4Codec.SKIPPABLE_MAGIC_MASK) == Lz4Codec.SKIPPABLE_MAGIC) {
+                readFully(header, Integer.BYTES, false);
+                skipFully(Lz4Codec.readIntLE(header, 0) & 0xFFFFFFFFL);
+                continue;
+            }
+            if (magic != Lz4Codec.FRAME_MAGIC) {
+                throw new IOException("not an LZ4 frame");
+            }
+            break;
+        }
+
+        readFully(header, 2, false);
+        setFrameDescriptor((header[0] & 0xFF) | (header[1] & 0xFF) << 8);
+        int flags = header[0] & 0xFF;
+        // optional content size and dictionary id, then the descriptor checksum
+        skipFully(((flags & 0x08) != 0 ? Long.BYTES : 0) + ((flags & 0x01) != 0 ? Integer.BYTES : 0) + 1);
+        return true;
+    }
+
+    private void setFrameDescriptor(int descriptor) throws IOException {
+        int flags = descriptor & 0xFF;
+        if ((flags >>> 6) != 1) {
+            throw new IOException("unsupported LZ4 frame version " + (flags >>> 6));
+        }
+        blockChecksum = (flags & 0x10) != 0;
+        contentChecksum = (flags & 0x04) != 0;
+        int maxBlockSize = Lz4Codec.getMaxBlockSize(descriptor >>> 8);
+        if (block.length < maxBlockSize) {
+            block = new byte[maxBlockSize];
+            compressed = new byte[maxBlockSize];
+        }
+        frameDescriptor = descriptor;
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (!finished) {
+            blockPosition = position;
+            readFully(header, Integer.BYTES, false);
+            int size = Lz4Codec.readIntLE(header, 0);
+            if (size == 0) {
+                if (contentChecksum) {
+                    skipFully(Integer.BYTES);
+                }
+                finished = !readFrameHeader();
+                continue;
+            }
+
+            int length = size & ~Lz4Codec.UNCOMPRESSED_FLAG;
+            if (length > block.length) {
+                throw new IOException("LZ4 block of " + length + " bytes exceeds the maximum block size");
+            }
+            if ((size & Lz4Codec.UNCOMPRESSED_FLAG) != 0) {
+                readFully(block, length, false);
+                limit = length;
+            } else {
+                readFully(compressed, length, false);
+                limit = Lz4Codec.decompress(compressed, 0, length, block, 0, block.length);
+            }
+            if (blockChecksum) {
+                skipFully(Integer.BYTES);
+            }
+            pos = 0;
+            if (limit > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+        return block[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || (pos == limit && !nextBlock())) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, limit - pos);
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,57 @@
+package tlc2.diploma.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an LZ4 frame readable by the {@code lz4} command line tool. Full blocks are compressed
+ * and written by a background thread, so the writing thread only copies bytes.
+ * <p>
+ * The stream is not thread-safe.
+ */
+public class Lz4FrameOutputStream extends AsyncBlockOutputStream {
+    private static final int BLOCK_SIZE = Lz4Codec.MAX_BLOCK_SIZE;
+    private static final int MAX_PENDING_BLOCKS = 4;
+
+    private final OutputStream out;
+
+    // used by the compressor thread only
+    private final int[] hashTable = new int[Lz4Codec.HASH_TABLE_SIZE];
+    private final byte[] compressed = new byte[Integer.BYTES + Lz4Codec.maxCompressedLength(BLOCK_SIZE)];
+
+    public Lz4FrameOutputStream(OutputStream out) throws IOException {
+        super(BLOCK_SIZE, MAX_PENDING_BLOCKS, "tlc-lz4");
+        this.out = out;
+        this.out.write(Lz4Codec.frameHeader());
+    }
+
+    @Override
+    protected void writeBlock(byte[] data, int size) throws IOException {
+        int length = Lz4Codec.compress(data, 0, size, compressed, Integer.BYTES, hashTable);
+        if (length < size) {
+            Lz4Codec.writeIntLE(compressed, 0, length);
+            out.write(compressed, 0, Integer.BYTES + length);
+        } else {
+            Lz4Codec.writeIntLE(compressed, 0, size | Lz4Codec.UNCOMPRESSED_FLAG);
+            out.write(compressed, 0, Integer.BYTES);
+            out.write(data, 0, size);
+        }
+    }
+
+    @Override
+    protected void flushOutput() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    protected void closeOutput(boolean failed) throws IOException {
+        try {
+            if (!failed) {
+                // end mark
+                out.write(new byte[Integer.BYTES]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
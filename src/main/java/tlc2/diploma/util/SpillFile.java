@@ -0,0 +1,194 @@
+package tlc2.diploma.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Temporary file of fixed-size blocks shared by the spill collections. Blocks are read and written
+ * asynchronously by a single background thread, so requests are executed in submission order and
+ * a read always sees every write submitted before it. The file and the thread are created on the
+ * first spill only.
+ * <p>
+ * All collections share one memory budget: besides the few blocks a collection always keeps,
+ * every hot block has to be acquired from the budget, otherwise the collection spills.
+ */
+class SpillFile implements Closeable {
+    static final int DEFAULT_BLOCK_BYTES = 1 << 16;
+    private static final long BUDGET = Long.getLong(SpillFile.class.getName() + ".budget", 256L << 20);
+    private static final String DIR = System.getProperty(SpillFile.class.getName() + ".dir");
+    private static final int MAX_PENDING_WRITES = 4;
+    private static final AtomicLong AVAILABLE = new AtomicLong(BUDGET);
+
+    private final int blockBytes;
+    private final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private final Deque<Future<?>> pendingWrites = new ArrayDeque<>();
+    private final Deque<ByteBuffer> pendingBuffers = new ArrayDeque<>();
+    private int acquiredBlocks = 0;
+    private FileChannel channel;
+    private ExecutorService io;
+
+    SpillFile(int blockBytes) {
+        this.blockBytes = blockBytes;
+    }
+
+    SpillFile() {
+        this(DEFAULT_BLOCK_BYTES);
+    }
+
+    boolean tryAcquireBlock() {
+        long available = AVAILABLE.get();
+        while (available >= blockBytes) {
+            if (AVAILABLE.compareAndSet(available, available - blockBytes)) {
+                acquiredBlocks++;
+                return true;
+            }
+            available = AVAILABLE.get();
+        }
+        return false;
+    }
+
+    void releaseBlock() {
+        acquiredBlocks--;
+        AVAILABLE.addAndGet(blockBytes);
+    }
+
+    static long getAvailableBudget() {
+        return AVAILABLE.get();
+    }
+
+    boolean isSpilled() {
+        return channel != null;
+    }
+
+    int getBlockBytes() {
+        return blockBytes;
+    }
+
+    ByteBuffer allocate() {
+        while (!pendingWrites.isEmpty() && (pendingWrites.peek().isDone() || pendingWrites.size() > MAX_PENDING_WRITES)) {
+            await(pendingWrites.poll());
+            freeBuffers.push(pendingBuffers.poll());
+        }
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(blockBytes).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        freeBuffers.push(buffer);
+    }
+
+    private void open() throws IOException {
+        Path file = DIR == null
+                ? Files.createTempFile("tlc-spill-", ".dat")
+                : Files.createTempFile(Files.createDirectories(Path.of(DIR)), "tlc-spill-", ".dat");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        io = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "tlc-spill-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Writes the whole buffer into block {@code block} in background. The buffer must not be touched
+     * until the returned future is done.
+     */
+    Future<?> write(long block, ByteBuffer buffer) {
+        try {
+            if (channel == null) {
+                open();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        long position = block * blockBytes;
+        return io.submit(() -> {
+            while (src.hasRemaining()) {
+                channel.write(src, position + src.position());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes the whole buffer into block {@code block} in background and takes the buffer back
+     * into the pool once it is written.
+     */
+    void writeBehind(long block, ByteBuffer buffer) {
+        pendingWrites.add(write(block, buffer));
+        pendingBuffers.add(buffer);
+    }
+
+    /**
+     * Reads block {@code block} into the whole buffer in background.
+     */
+    Future<?> read(long block, ByteBuffer buffer) {
+        if (channel == null) {
+            throw new IllegalStateException("block " + block + " was never written");
+        }
+        ByteBuffer dst = buffer.duplicate();
+        dst.clear();
+        long position = block * blockBytes;
+        return io.submit(() -> {
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, position + dst.position()) < 0) {
+                    throw new IOException("unexpected end of spill file");
+                }
+            }
+            return null;
+        });
+    }
+
+    static void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        AVAILABLE.addAndGet((long) acquiredBlocks * blockBytes);
+        acquiredBlocks = 0;
+        freeBuffers.clear();
+        pendingBuffers.clear();
+        if (channel != null) {
+            io.shutdown();
+            try {
+                io.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package tlc2.diploma.util;
+
+public class SpillIntQueue extends AbstractSpillQueue {
+    public void offer(int value) {
+        blockForOffer().putInt(value);
+        size++;
+    }
+
+    public int poll() {
+        int value = blockForPoll().getInt(headPos);
+        headPos += Integer.BYTES;
+        size--;
+        return value;
+    }
+
+    public int peek() {
+        return blockForPoll().getInt(headPos);
+    }
+}
@@ -0,0 +1,23 @@
+package tlc2.diploma.util;
+
+import java.nio.ByteBuffer;
+
+public class SpillIntStack extends AbstractSpillStack {
+    public void push(int value) {
+        blockForPush().putInt(value);
+        size++;
+    }
+
+    public int pop() {
+        ByteBuffer block = blockForPop();
+        int pos = block.position() - Integer.BYTES;
+        block.position(pos);
+        size--;
+        return block.getInt(pos);
+    }
+
+    public int peek() {
+        ByteBuffer block = blockForPop();
+        return block.getInt(block.position() - Integer.BYTES);
+    }
+}
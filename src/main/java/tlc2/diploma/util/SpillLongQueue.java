@@ -0,0 +1,19 @@
+package tlc2.diploma.util;
+
+public class SpillLongQueue extends AbstractSpillQueue {
+    public void offer(long value) {
+        blockForOffer().putLong(value);
+        size++;
+    }
+
+    public long poll() {
+        long value = blockForPoll().getLong(headPos);
+        headPos += Long.BYTES;
+        size--;
+        return value;
+    }
+
+    public long peek() {
+        return blockForPoll().getLong(headPos);
+    }
+}
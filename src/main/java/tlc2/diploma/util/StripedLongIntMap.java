@@ -0,0 +1,95 @@
+package tlc2.diploma.util;
+
+import org.eclipse.collections.api.map.primitive.MutableLongIntMap;
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Concurrent primitive long to int map split into independently locked stripes.
+ * Threads waiting for an absent key are woken up only when that exact key is put.
+ */
+public class StripedLongIntMap {
+    private static final int DEFAULT_STRIPE_COUNT = 1 << 8;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public StripedLongIntMap(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = size - 1;
+    }
+
+    public StripedLongIntMap() {
+        this(DEFAULT_STRIPE_COUNT);
+    }
+
+    private Stripe getStripe(long key) {
+        // use high bits of the mixed key so that stripes do not correlate with bucket indices inside them
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 32) & stripeMask];
+    }
+
+    public void put(long key, int value) {
+        Stripe stripe = getStripe(key);
+        CountDownLatch latch;
+        synchronized (stripe) {
+            stripe.map.put(key, value);
+            latch = stripe.waiters.isEmpty() ? null : stripe.waiters.removeKey(key);
+        }
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    public int getIfAbsent(long key, int ifAbsent) {
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.map.getIfAbsent(key, ifAbsent);
+        }
+    }
+
+    public int await(long key) throws InterruptedException {
+        Stripe stripe = getStripe(key);
+        CountDownLatch latch;
+        synchronized (stripe) {
+            if (stripe.map.containsKey(key)) {
+                return stripe.map.get(key);
+            }
+            latch = stripe.waiters.getIfAbsentPut(key, () -> new CountDownLatch(1));
+        }
+        latch.await();
+        synchronized (stripe) {
+            return stripe.map.get(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.map.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.map.clear();
+            }
+        }
+    }
+
+    private static class Stripe {
+        private final MutableLongIntMap map = new LongIntHashMap();
+        private final MutableLongObjectMap<CountDownLatch> waiters = new LongObjectHashMap<>();
+    }
+}
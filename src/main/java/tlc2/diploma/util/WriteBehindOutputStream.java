@@ -0,0 +1,37 @@
+package tlc2.diploma.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes to a channel from a background thread, so that the writing thread never waits for the disk
+ * unless all buffers are in flight.
+ * <p>
+ * The stream is not thread-safe.
+ */
+public class WriteBehindOutputStream extends AsyncBlockOutputStream {
+    private final WritableByteChannel channel;
+
+    public WriteBehindOutputStream(WritableByteChannel channel, int bufferSize, int maxPendingBuffers) {
+        super(bufferSize, maxPendingBuffers, "tlc-write-behind");
+        this.channel = channel;
+    }
+
+    @Override
+    protected void writeBlock(byte[] data, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, size);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    protected void flushOutput() {
+    }
+
+    @Override
+    protected void closeOutput(boolean failed) throws IOException {
+        channel.close();
+    }
+}
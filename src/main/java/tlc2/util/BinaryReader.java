@@ -0,0 +1,287 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static tlc2.util.BinaryWriter.*;
+
+/**
+ * Sequential reader of files written by {@link BinaryWriter}. Records are read one by one,
+ * the value of the current record can be decoded into a fastjson2 tree or streamed into a JSON writer.
+ * An int array split into several records is read as the value of its first record.
+ */
+public class BinaryReader implements Closeable {
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final List<String> dictionary = new ArrayList<>();
+    private byte[] payload = new byte[1 << 10];
+    private int payloadSize = 0;
+    private int pos = 0;
+    private int recordId = -1;
+
+    public BinaryReader(InputStream in) throws IOException {
+        this.in = in;
+        byte[] magic = new byte[MAGIC.length];
+        if (in.readNBytes(magic, 0, magic.length) != magic.length || !Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a binary export file");
+        }
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("unsupported binary export version " + version);
+        }
+    }
+
+    public BinaryReader(Path path) throws IOException {
+        this(ExportUtil.newInputStream(path));
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("unexpected end of binary export file");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+        if (in.readNBytes(bytes, 0, length) != length) {
+            throw new EOFException("unexpected end of binary export file");
+        }
+    }
+
+    /**
+     * Advances to the next record, returns {@code false} if there are no records left.
+     */
+    public boolean nextRecord() throws IOException {
+        while (true) {
+            int entry = in.read();
+            if (entry == -1) {
+                recordId = -1;
+                return false;
+            }
+            if (entry == STRING_ENTRY) {
+                byte[] bytes = new byte[readVarInt()];
+                readFully(bytes, bytes.length);
+                dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+            } else if (entry == RECORD_ENTRY) {
+                recordId = readVarInt();
+                payloadSize = readVarInt();
+                if (payloadSize > payload.length) {
+                    payload = new byte[Math.max(payloadSize, 2 * payload.length)];
+                }
+                readFully(payload, payloadSize);
+                pos = 0;
+                return true;
+            } else {
+                throw new IOException("unknown entry " + entry + " in binary export file");
+            }
+        }
+    }
+
+    public int getRecordId() {
+        if (recordId == -1) {
+            throw new IllegalStateException("no current record");
+        }
+        return recordId;
+    }
+
+    private int nextVarInt() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = payload[pos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private int nextZigZag() {
+        int value = nextVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private String nextString() {
+        return dictionary.get(nextVarInt());
+    }
+
+    // moves on to the record holding the next part of a split int array, returns its tag
+    private int nextIntChunk() throws IOException {
+        int id = recordId;
+        if (!nextRecord() || recordId != id) {
+            throw new IOException("int array of record " + id + " is truncated");
+        }
+        int tag = payload[pos++];
+        if (tag != INT_ARRAY && tag != INT_ARRAY_CHUNK) {
+            throw new IOException("unexpected value tag " + tag + " in int array of record " + id);
+        }
+        return tag;
+    }
+
+    /**
+     * Decodes the value of the current record into the same tree {@link FastJsonSerializer#serialize} builds.
+     */
+    public Object readValue() throws IOException {
+        getRecordId();
+        pos = 0;
+        return nextValue();
+    }
+
+    private Object nextValue() throws IOException {
+        int tag = payload[pos++];
+        switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case INT:
+                return nextZigZag();
+            case STRING:
+                return nextString();
+            case ARRAY: {
+                int size = nextVarInt();
+                JSONArray jsonArray = new JSONArray(size);
+                for (int i = 0; i < size; i++) {
+                    jsonArray.add(nextValue());
+                }
+                return jsonArray;
+            }
+            case OBJECT: {
+                int size = nextVarInt();
+                JSONObject jsonObject = new JSONObject();
+                for (int i = 0; i < size; i++) {
+                    String name = nextString();
+                    jsonObject.put(name, nextValue());
+                }
+                return jsonObject;
+            }
+            case INT_ARRAY:
+            case INT_ARRAY_CHUNK: {
+                JSONArray jsonArray = new JSONArray();
+                while (true) {
+                    int size = nextVarInt();
+                    for (int i = 0; i < size; i++) {
+                        jsonArray.add(nextVarInt());
+                    }
+                    if (tag == INT_ARRAY) {
+                        return jsonArray;
+                    }
+                    tag = nextIntChunk();
+                }
+            }
+            default:
+                throw new IOException("unknown value tag " + tag + " in record " + recordId);
+        }
+    }
+
+    /**
+     * Streams the value of the current record into the writer as JSON.
+     */
+    public void writeValue(JSONWriter jsonWriter) throws IOException {
+        writeValue(jsonWriter, null);
+    }
+
+    /**
+     * Streams the value of the current record into the writer as JSON. While a split int array is written,
+     * the writer is flushed into {@code out} if it is not {@code null}, so the array is never buffered whole.
+     */
+    public void writeValue(JSONWriter jsonWriter, OutputStream out) throws IOException {
+        getRecordId();
+        pos = 0;
+        writeNextValue(jsonWriter, out);
+    }
+
+    private void writeNextValue(JSONWriter jsonWriter, OutputStream out) throws IOException {
+        int tag = payload[pos++];
+        switch (tag) {
+            case NULL:
+                jsonWriter.writeNull();
+                break;
+            case FALSE:
+            case TRUE:
+                jsonWriter.writeBool(tag == TRUE);
+                break;
+            case INT:
+                jsonWriter.writeInt32(nextZigZag());
+                break;
+            case STRING:
+                jsonWriter.writeString(nextString());
+                break;
+            case ARRAY: {
+                int size = nextVarInt();
+                jsonWriter.startArray();
+                for (int i = 0; i < size; i++) {
+                    if (i > 0) {
+                        jsonWriter.writeComma();
+                    }
+                    writeNextValue(jsonWriter, out);
+                }
+                jsonWriter.endArray();
+                break;
+            }
+            case OBJECT: {
+                int size = nextVarInt();
+                jsonWriter.startObject();
+                for (int i = 0; i < size; i++) {
+                    jsonWriter.writeName(nextString());
+                    jsonWriter.writeColon();
+                    writeNextValue(jsonWriter, out);
+                }
+                jsonWriter.endObject();
+                break;
+            }
+            case INT_ARRAY:
+            case INT_ARRAY_CHUNK: {
+                jsonWriter.startArray();
+                boolean first = true;
+                while (true) {
+                    int size = nextVarInt();
+                    for (int i = 0; i < size; i++) {
+                        if (!first) {
+                            jsonWriter.writeComma();
+                        }
+                        jsonWriter.writeInt32(nextVarInt());
+                        first = false;
+                    }
+                    if (tag == INT_ARRAY) {
+                        break;
+                    }
+                    if (out != null && jsonWriter.size() >= FLUSH_SIZE) {
+                        jsonWriter.flushTo(out);
+                    }
+                    tag = nextIntChunk();
+                }
+                jsonWriter.endArray();
+                break;
+            }
+            default:
+                throw new IOException("unknown value tag " + tag + " in record " + recordId);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,74 @@
+package tlc2.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import tlc2.value.IValue;
+
+/**
+ * Binary counterpart of {@link FastJsonSerializer}: writes values with the same structure
+ * into a {@link BinaryWriter}.
+ */
+public class BinarySerializer {
+    private BinarySerializer() {
+    }
+
+    public static void write(BinaryWriter writer, IValue value) {
+        try {
+            new BinaryWalker(writer).writeValue(value, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class BinaryWalker extends ValueWalker {
+        private final BinaryWriter writer;
+
+        BinaryWalker(BinaryWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        protected void writeNull() {
+            writer.writeNull();
+        }
+
+        @Override
+        protected void writeBool(boolean value) {
+            writer.writeBool(value);
+        }
+
+        @Override
+        protected void writeInt(int value) {
+            writer.writeInt(value);
+        }
+
+        @Override
+        protected void writeString(String value) {
+            writer.writeString(value);
+        }
+
+        @Override
+        protected void startArray(int size) {
+            writer.startArray(size);
+        }
+
+        @Override
+        protected void endArray() {
+        }
+
+        @Override
+        protected void startObject(int size) {
+            writer.startObject(size);
+        }
+
+        @Override
+        protected void writeName(String name) {
+            writer.writeName(name);
+        }
+
+        @Override
+        protected void endObject() {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSONWriter;
+import tlc2.TLCGlobals;
+import tlc2.tool.Action;
+import tlc2.tool.TLCState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Exports the path cover in the compact binary format of {@link BinaryWriter} instead of JSON.
+ * The layout of the export folder and {@code meta.json} stay the same, {@link BinaryToJsonConverter}
+ * turns such a folder into the one {@link JsonStateWriter} would produce.
+ */
+public class BinaryStateWriter extends PathCoverStateWriter {
+    public static final String FORMAT = "binary";
+
+    private final BinaryWriter[] stateWriters;
+    private final BinaryWriter[] actionWriters;
+
+    private static final String EXPORT_DIR = System.getProperty(BinaryStateWriter.class.getName() + ".dir");
+
+    @SuppressWarnings("resource")
+    public BinaryStateWriter() throws IOException {
+        super(Path.of(EXPORT_DIR), FORMAT, ".bin");
+
+        int threads = TLCGlobals.getNumWorkers();
+        this.stateWriters = new BinaryWriter[threads];
+        this.actionWriters = new BinaryWriter[threads];
+        for (int i = 0; i < threads; i++) {
+            String fileName = getFileName(i);
+            this.stateWriters[i] = new BinaryWriter(ExportUtil.newOutputStream(getStateDir().resolve(fileName)));
+            this.actionWriters[i] = new BinaryWriter(ExportUtil.newOutputStream(getActionDir().resolve(fileName)));
+        }
+    }
+
+    @Override
+    protected void writeState(int threadId, int id, TLCState state) {
+        BinaryWriter writer = this.stateWriters[threadId];
+        writer.startRecord(id);
+        ExportUtil.writeState(writer, state);
+        endRecord(writer);
+    }
+
+    @Override
+    protected void writeStateDelta(int threadId, int id, TLCState state, int parentId, TLCState parent) {
+        BinaryWriter writer = this.stateWriters[threadId];
+        writer.startRecord(id);
+        ExportUtil.writeStateDelta(writer, state, parentId, parent);
+        endRecord(writer);
+    }
+
+    @Override
+    protected void writeAction(int threadId, int id, TLCState from, TLCState to, Action action) {
+        BinaryWriter writer = this.actionWriters[threadId];
+        writer.startRecord(id);
+        ExportUtil.writeAction(writer, from, to, action);
+        endRecord(writer);
+    }
+
+    private static void endRecord(BinaryWriter writer) {
+        try {
+            writer.endRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void closeStateAndActionFiles() throws IOException {
+        for (int i = 0; i < this.stateWriters.length; i++) {
+            this.stateWriters[i].close();
+            this.actionWriters[i].close();
+        }
+    }
+
+    @Override
+    protected void writeMetaEntries(JSONWriter jsonWriter) {
+        jsonWriter.writeName("format");
+        jsonWriter.writeColon();
+        jsonWriter.writeString(FORMAT);
+    }
+
+    @Override
+    protected ExecutionWriter createExecutionWriter(Path path) throws IOException {
+        return new BinaryExecutionWriter(path);
+    }
+
+    // every path is a record with the index of the path in the file as its id, streamed in int array chunks
+    private static class BinaryExecutionWriter extends ExecutionWriter {
+        private final BinaryWriter writer;
+        private int pathCount;
+
+        public BinaryExecutionWriter(Path path) throws IOException {
+            this.writer = new BinaryWriter(ExportUtil.newOutputStream(path));
+            this.pathCount = 0;
+        }
+
+        @Override
+        protected void startPath(int from) throws IOException {
+            writer.startRecord(pathCount++);
+            writer.startIntArray();
+            writer.writeIntArrayElement(from);
+        }
+
+        @Override
+        protected void writeStep(int id, int to) throws IOException {
+            writer.writeIntArrayElement(id);
+            writer.writeIntArrayElement(to);
+        }
+
+        @Override
+        protected void endPath(boolean empty) throws IOException {
+            if (empty) {
+                writer.startRecord(pathCount++);
+                writer.startIntArray();
+            }
+            writer.endIntArray();
+            writer.endRecord();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
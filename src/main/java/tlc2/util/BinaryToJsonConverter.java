@@ -0,0 +1,96 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Converts a folder exported by {@link BinaryStateWriter} into the layout of {@link JsonStateWriter}.
+ * Compressed files are decompressed, the JSON export is written uncompressed.
+ * <p>
+ * Usage: {@code java tlc2.util.BinaryToJsonConverter <binary export folder> <JSON export folder>}
+ */
+public class BinaryToJsonConverter {
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private BinaryToJsonConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java " + BinaryToJsonConverter.class.getName()
+                    + " <binary export folder> <JSON export folder>");
+            System.exit(1);
+        }
+        convert(Path.of(args[0]), Path.of(args[1]));
+    }
+
+    public static void convert(Path from, Path to) throws IOException {
+        JSONObject meta = JSON.parseObject(Files.readString(from.resolve("meta.json")));
+        if (!BinaryStateWriter.FORMAT.equals(meta.getString("format"))) {
+            throw new IOException(from + " is not a binary export");
+        }
+        meta.remove("format");
+        meta.remove("codec");
+
+        meta.put("state_files", convertFiles(from, to, meta.getJSONArray("state_files"), false));
+        meta.put("action_files", convertFiles(from, to, meta.getJSONArray("action_files"), false));
+        meta.put("execution_files", convertFiles(from, to, meta.getJSONArray("execution_files"), true));
+
+        Files.writeString(to.resolve("meta.json"), meta.toJSONString());
+    }
+
+    private static JSONArray convertFiles(Path from, Path to, JSONArray files, boolean executions) throws IOException {
+        JSONArray jsonFiles = new JSONArray(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            String file = files.getString(i);
+            String jsonFile = file.replaceAll("\\.bin(\\.lz4)?$", ".json");
+            Path target = to.resolve(jsonFile);
+            Files.createDirectories(target.getParent());
+            convertFile(from.resolve(file), target, executions);
+            jsonFiles.add(jsonFile);
+        }
+        return jsonFiles;
+    }
+
+    // executions are written as an array of paths, states and actions as an object keyed by id
+    private static void convertFile(Path from, Path to, boolean executions) throws IOException {
+        try (BinaryReader reader = new BinaryReader(from);
+             OutputStream out = ExportUtil.newOutputStream(to);
+             JSONWriter jsonWriter = JSONWriter.ofUTF8()) {
+            if (executions) {
+                jsonWriter.startArray();
+            } else {
+                jsonWriter.startObject();
+            }
+            boolean first = true;
+            while (reader.nextRecord()) {
+                if (executions) {
+                    if (!first) {
+                        jsonWriter.writeComma();
+                    }
+                } else {
+                    jsonWriter.writeName(Integer.toString(reader.getRecordId()));
+                    jsonWriter.writeColon();
+                }
+                reader.writeValue(jsonWriter, out);
+                first = false;
+                if (jsonWriter.size() >= FLUSH_SIZE) {
+                    jsonWriter.flushTo(out);
+                }
+            }
+            if (executions) {
+                jsonWriter.endArray();
+            } else {
+                jsonWriter.endObject();
+            }
+            jsonWriter.flushTo(out);
+        }
+    }
+}
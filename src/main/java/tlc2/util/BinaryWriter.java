@@ -0,0 +1,220 @@
+package tlc2.util;
+
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writer of the compact binary export format. A file starts with {@link #MAGIC} and {@link #VERSION}
+ * followed by entries: a string entry appends a string to the dictionary of the file, a record entry
+ * holds an id and a length-prefixed value. Values are tagged, strings and object keys are references
+ * to the dictionary, integers are zigzag varints. A long array of non-negative integers is split into
+ * records with the same id: every part but the last is tagged {@link #INT_ARRAY_CHUNK}.
+ * <p>
+ * The writer is not thread-safe, every worker writes its own file.
+ */
+public class BinaryWriter implements Closeable {
+    static final byte[] MAGIC = {'T', 'L', 'C', 'B'};
+    static final int VERSION = 1;
+
+    static final int STRING_ENTRY = 1;
+    static final int RECORD_ENTRY = 2;
+
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int INT = 3;
+    static final int STRING = 4;
+    static final int ARRAY = 5;
+    static final int OBJECT = 6;
+    static final int INT_ARRAY = 7;
+    static final int INT_ARRAY_CHUNK = 8;
+
+    static final int INT_ARRAY_CHUNK_SIZE = 1 << 12;
+
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final ObjectIntHashMap<String> dictionary = new ObjectIntHashMap<>();
+    private final ByteArray entries = new ByteArray();
+    private final ByteArray payload = new ByteArray();
+    private int recordId = -1;
+    private final int[] intChunk = new int[INT_ARRAY_CHUNK_SIZE];
+    // -1 while no int array is written
+    private int intChunkSize = -1;
+
+    public BinaryWriter(OutputStream out) throws IOException {
+        this.out = out;
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    public void startRecord(int id) {
+        if (recordId != -1) {
+            throw new IllegalStateException("record " + recordId + " is not finished");
+        }
+        recordId = id;
+        payload.clear();
+    }
+
+    public void endRecord() throws IOException {
+        if (recordId == -1) {
+            throw new IllegalStateException("no record is started");
+        }
+        if (intChunkSize != -1) {
+            throw new IllegalStateException("int array of record " + recordId + " is not finished");
+        }
+        finishRecord();
+    }
+
+    private void finishRecord() throws IOException {
+        entries.writeByte(RECORD_ENTRY);
+        entries.writeVarInt(recordId);
+        entries.writeVarInt(payload.size);
+        entries.write(payload.bytes, 0, payload.size);
+        recordId = -1;
+        if (entries.size >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    private int getStringRef(String s) {
+        int ref = dictionary.getIfAbsent(s, -1);
+        if (ref == -1) {
+            ref = dictionary.size();
+            dictionary.put(s, ref);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            entries.writeByte(STRING_ENTRY);
+            entries.writeVarInt(bytes.length);
+            entries.write(bytes, 0, bytes.length);
+        }
+        return ref;
+    }
+
+    public void writeNull() {
+        payload.writeByte(NULL);
+    }
+
+    public void writeBool(boolean value) {
+        payload.writeByte(value ? TRUE : FALSE);
+    }
+
+    public void writeInt(int value) {
+        payload.writeByte(INT);
+        payload.writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeString(String value) {
+        payload.writeByte(STRING);
+        payload.writeVarInt(getStringRef(value));
+    }
+
+    public void startArray(int size) {
+        payload.writeByte(ARRAY);
+        payload.writeVarInt(size);
+    }
+
+    public void startObject(int size) {
+        payload.writeByte(OBJECT);
+        payload.writeVarInt(size);
+    }
+
+    /**
+     * Writes a key of the current object, must be followed by its value.
+     */
+    public void writeName(String name) {
+        payload.writeVarInt(getStringRef(name));
+    }
+
+    /**
+     * Starts an array of non-negative integers without per-element tags as the whole value of the current
+     * record. Elements are buffered in chunks of {@link #INT_ARRAY_CHUNK_SIZE}, so an array of any length
+     * is written with bounded memory.
+     */
+    public void startIntArray() {
+        if (recordId == -1 || payload.size != 0) {
+            throw new IllegalStateException("an int array must be the whole value of a record");
+        }
+        intChunkSize = 0;
+    }
+
+    public void writeIntArrayElement(int value) throws IOException {
+        if (intChunkSize == -1) {
+            throw new IllegalStateException("no int array is started");
+        }
+        if (intChunkSize == intChunk.length) {
+            int id = recordId;
+            writeIntChunk(INT_ARRAY_CHUNK);
+            finishRecord();
+            startRecord(id);
+        }
+        intChunk[intChunkSize++] = value;
+    }
+
+    public void endIntArray() {
+        if (intChunkSize == -1) {
+            throw new IllegalStateException("no int array is started");
+        }
+        writeIntChunk(INT_ARRAY);
+        intChunkSize = -1;
+    }
+
+    private void writeIntChunk(int tag) {
+        payload.writeByte(tag);
+        payload.writeVarInt(intChunkSize);
+        for (int i = 0; i < intChunkSize; i++) {
+            payload.writeVarInt(intChunk[i]);
+        }
+        intChunkSize = 0;
+    }
+
+    public void flush() throws IOException {
+        out.write(entries.bytes, 0, entries.size);
+        entries.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private static class ByteArray {
+        private byte[] bytes = new byte[1 << 10];
+        private int size = 0;
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+            }
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(size + 5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void write(byte[] src, int offset, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(src, offset, bytes, size, length);
+            size += length;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package tlc2.util;
 import com.alibaba.fastjson2.JSONWriter;
 import tlc2.TLCGlobals;
 import tlc2.diploma.graph.ConcreteAction;
+import tlc2.diploma.util.Lz4FrameInputStream;
+import tlc2.diploma.util.Lz4FrameOutputStream;
+import tlc2.diploma.util.WriteBehindOutputStream;
 import tlc2.module.TLCPE;
 import tlc2.tool.Action;
 import tlc2.tool.TLCState;
@@ -10,14 +13,68 @@ import tlc2.tool.impl.Tool;
 import tlc2.value.IValue;
 import util.UniqueString;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ExportUtil {
+    public static final String PARENT = "$parent";
+    public static final String LZ4_EXTENSION = ".lz4";
+
+    private static final int WRITE_BEHIND_BUFFER_SIZE = 1 << 16;
+    private static final int WRITE_BEHIND_BUFFERS = 8;
+
     private ExportUtil() {
     }
 
+    static boolean isCompressed(Path path) {
+        return path.getFileName().toString().endsWith(LZ4_EXTENSION);
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens an export file for writing, files with the {@code .lz4} extension are compressed on the fly.
+     * The stream is unbuffered: writers serialize into their own byte buffers and write them in large chunks.
+     */
+    public static OutputStream newOutputStream(Path path) throws IOException {
+        OutputStream out = Channels.newOutputStream(openChannel(path));
+        return isCompressed(path) ? new Lz4FrameOutputStream(out) : out;
+    }
+
+    /**
+     * Opens an export file that is written by a background thread, the calling thread only copies bytes
+     * into pooled buffers and waits only when all of them are in flight.
+     */
+    public static OutputStream newAsyncOutputStream(Path path) throws IOException {
+        if (isCompressed(path)) {
+            // compressed blocks are already written by the compressor thread
+            return newOutputStream(path);
+        }
+        return new WriteBehindOutputStream(openChannel(path), WRITE_BEHIND_BUFFER_SIZE, WRITE_BEHIND_BUFFERS);
+    }
+
+    /**
+     * Opens an export file for reading, files with the {@code .lz4} extension are decompressed on the fly.
+     */
+    public static InputStream newInputStream(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(path));
+        return isCompressed(path) ? new Lz4FrameInputStream(in) : in;
+    }
+
     public static Tool getTool() {
         return (Tool) (TLCGlobals.mainChecker != null ? TLCGlobals.mainChecker.tool : TLCGlobals.simulator.getTool());
     }
@@ -49,23 +106,55 @@ public class ExportUtil {
         for (Map.Entry<String, IValue> entry : ExportUtil.getSpecConstantValues().entrySet()) {
             jsonWriter.writeName(entry.getKey());
             jsonWriter.writeColon();
-            jsonWriter.writeAny(FastJsonSerializer.serialize(entry.getValue()));
+            FastJsonSerializer.write(jsonWriter, entry.getValue());
         }
         jsonWriter.endObject();
     }
 
     public static void writeState(JSONWriter jsonWriter, TLCState state) {
+        writeState(jsonWriter, state, null);
+    }
+
+    static void writeState(JSONWriter jsonWriter, TLCState state, JsonValueTable valueTable) {
         jsonWriter.startObject();
         Map<UniqueString, IValue> stateVals = state.getVals();
         for (Map.Entry<UniqueString, IValue> entry : stateVals.entrySet()) {
             jsonWriter.writeName(entry.getKey().toString());
             jsonWriter.writeColon();
-            jsonWriter.writeAny(FastJsonSerializer.serialize(entry.getValue()));
+            FastJsonSerializer.write(jsonWriter, entry.getValue(), valueTable);
         }
         jsonWriter.endObject();
     }
 
-    public static void writeAction(JSONWriter jsonWriter, TLCState from, TLCState to, Action action) {
+    // unchanged values are usually shared with the parent, fingerprints are compared otherwise
+    private static boolean isChanged(IValue value, IValue parentValue) {
+        if (value == parentValue) {
+            return false;
+        }
+        if (value == null || parentValue == null) {
+            return true;
+        }
+        return value.fingerPrint(FP64.New()) != parentValue.fingerPrint(FP64.New());
+    }
+
+    static void writeStateDelta(JSONWriter jsonWriter, TLCState state, int parentId, TLCState parent,
+                                JsonValueTable valueTable) {
+        jsonWriter.startObject();
+        jsonWriter.writeName(PARENT);
+        jsonWriter.writeColon();
+        jsonWriter.writeInt32(parentId);
+        Map<UniqueString, IValue> parentVals = parent.getVals();
+        for (Map.Entry<UniqueString, IValue> entry : state.getVals().entrySet()) {
+            if (isChanged(entry.getValue(), parentVals.get(entry.getKey()))) {
+                jsonWriter.writeName(entry.getKey().toString());
+                jsonWriter.writeColon();
+                FastJsonSerializer.write(jsonWriter, entry.getValue(), valueTable);
+            }
+        }
+        jsonWriter.endObject();
+    }
+
+    private static ConcreteAction getConcreteAction(TLCState from, TLCState to, Action action) {
         ConcreteAction concreteAction;
         if (TLCPE.exportedActions.get() != null) {
             concreteAction = TLCPE.exportedActions.get();
@@ -73,12 +162,53 @@ public class ExportUtil {
         } else {
             concreteAction = ConcreteAction.from(from, to, action);
         }
+        return concreteAction;
+    }
+
+    public static void writeAction(JSONWriter jsonWriter, TLCState from, TLCState to, Action action) {
+        ConcreteAction concreteAction = getConcreteAction(from, to, action);
         jsonWriter.startArray();
         jsonWriter.writeString(concreteAction.getName());
         for (IValue val : concreteAction.getArgs()) {
             jsonWriter.writeComma();
-            jsonWriter.writeAny(FastJsonSerializer.serialize(val));
+            FastJsonSerializer.write(jsonWriter, val);
         }
         jsonWriter.endArray();
     }
+
+    public static void writeState(BinaryWriter writer, TLCState state) {
+        Map<UniqueString, IValue> stateVals = state.getVals();
+        writer.startObject(stateVals.size());
+        for (Map.Entry<UniqueString, IValue> entry : stateVals.entrySet()) {
+            writer.writeName(entry.getKey().toString());
+            BinarySerializer.write(writer, entry.getValue());
+        }
+    }
+
+    public static void writeStateDelta(BinaryWriter writer, TLCState state, int parentId, TLCState parent) {
+        Map<UniqueString, IValue> stateVals = state.getVals();
+        Map<UniqueString, IValue> parentVals = parent.getVals();
+        List<Map.Entry<UniqueString, IValue>> changed = new ArrayList<>();
+        for (Map.Entry<UniqueString, IValue> entry : stateVals.entrySet()) {
+            if (isChanged(entry.getValue(), parentVals.get(entry.getKey()))) {
+                changed.add(entry);
+            }
+        }
+        writer.startObject(1 + changed.size());
+        writer.writeName(PARENT);
+        writer.writeInt(parentId);
+        for (Map.Entry<UniqueString, IValue> entry : changed) {
+            writer.writeName(entry.getKey().toString());
+            BinarySerializer.write(writer, entry.getValue());
+        }
+    }
+
+    public static void writeAction(BinaryWriter writer, TLCState from, TLCState to, Action action) {
+        ConcreteAction concreteAction = getConcreteAction(from, to, action);
+        writer.startArray(1 + concreteAction.getArgs().size());
+        writer.writeString(concreteAction.getName());
+        for (IValue val : concreteAction.getArgs()) {
+            BinarySerializer.write(writer, val);
+        }
+    }
 }
@@ -2,27 +2,21 @@ package tlc2.util;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 
 import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
 
 import tlc2.value.IValue;
 import tlc2.value.impl.BoolValue;
-import tlc2.value.impl.FcnLambdaValue;
-import tlc2.value.impl.FcnRcdValue;
 import tlc2.value.impl.IntValue;
-import tlc2.value.impl.IntervalValue;
-import tlc2.value.impl.ModelValue;
 import tlc2.value.impl.RecordValue;
-import tlc2.value.impl.SetEnumValue;
-import tlc2.value.impl.SetOfFcnsValue;
-import tlc2.value.impl.SetOfRcdsValue;
-import tlc2.value.impl.SetOfTuplesValue;
 import tlc2.value.impl.StringValue;
-import tlc2.value.impl.SubsetValue;
 import tlc2.value.impl.TupleValue;
 import tlc2.value.impl.Value;
 import util.UniqueString;
@@ -36,118 +30,178 @@ public class FastJsonSerializer {
             return null;
         }
         try {
-            return getNode(value);
+            TreeBuilder builder = new TreeBuilder();
+            builder.writeContent(value, 0);
+            return builder.root;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private static Object getNode(IValue value) throws IOException {
-        if (value instanceof RecordValue) {
-            return getObjectNode((RecordValue) value);
-        } else if (value instanceof TupleValue) {
-            return getArrayNode((TupleValue) value);
-        } else if (value instanceof StringValue) {
-            return ((StringValue) value).val.toString();
-        } else if (value instanceof ModelValue) {
-            return ((ModelValue) value).val.toString();
-        } else if (value instanceof IntValue) {
-            return ((IntValue) value).val;
-        } else if (value instanceof BoolValue) {
-            return ((BoolValue) value).val;
-        } else if (value instanceof FcnRcdValue) {
-            return getObjectNode((FcnRcdValue) value);
-        } else if (value instanceof FcnLambdaValue) {
-            return getObjectNode((FcnRcdValue) ((FcnLambdaValue) value).toFcnRcd());
-        } else if (value instanceof SetEnumValue) {
-            return getArrayNode((SetEnumValue) value);
-        } else if (value instanceof SetOfRcdsValue) {
-            return getArrayNode((SetEnumValue) ((SetOfRcdsValue) value).toSetEnum());
-        } else if (value instanceof SetOfTuplesValue) {
-            return getArrayNode((SetEnumValue) ((SetOfTuplesValue) value).toSetEnum());
-        } else if (value instanceof SetOfFcnsValue) {
-            return getArrayNode((SetEnumValue) ((SetOfFcnsValue) value).toSetEnum());
-        } else if (value instanceof SubsetValue) {
-            return getArrayNode((SetEnumValue) ((SubsetValue) value).toSetEnum());
-        } else if (value instanceof IntervalValue) {
-            return getArrayNode((SetEnumValue) ((IntervalValue) value).toSetEnum());
-        } else {
-            throw new IOException("Cannot convert value: unsupported value type " + value.getClass().getName());
+    /**
+     * Writes the same JSON as {@link #serialize(IValue)} returns, but straight into the writer
+     * without building an intermediate tree.
+     */
+    public static void write(JSONWriter jsonWriter, IValue value) {
+        write(jsonWriter, value, null);
+    }
+
+    /**
+     * Writes the value, replacing its composite sub-values with references into the table
+     * if the table is not {@code null}.
+     */
+    static void write(JSONWriter jsonWriter, IValue value, JsonValueTable table) {
+        try {
+            new JsonWalker(jsonWriter, table).writeValue(value, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    private static boolean isValidSequence(FcnRcdValue value) {
-        final Value[] domain = value.getDomainAsValues();
-        for (Value d : domain) {
-            if (!(d instanceof IntValue)) {
-                return false;
+    /**
+     * Writes the value itself even if it is composite, its sub-values may become references.
+     */
+    static void writeContent(JSONWriter jsonWriter, IValue value, JsonValueTable table, int depth) throws IOException {
+        new JsonWalker(jsonWriter, table).writeContent(value, depth);
+    }
+
+    private static class JsonWalker extends ValueWalker {
+        private final JSONWriter jsonWriter;
+        private final JsonValueTable table;
+
+        JsonWalker(JSONWriter jsonWriter, JsonValueTable table) {
+            this.jsonWriter = jsonWriter;
+            this.table = table;
+        }
+
+        @Override
+        protected void writeValue(IValue value, int depth) throws IOException {
+            if (table != null && depth < table.getMaxDepth() && isComposite(value)) {
+                table.writeRef(jsonWriter, value, depth);
+            } else {
+                writeContent(value, depth);
             }
         }
-        value.normalize();
-        for (int i = 0; i < domain.length; i++) {
-            // TODO: fix this hack
-            if (((IntValue) domain[i]).val != (i + 1) && ((IntValue) domain[i]).val != i) {
-                return false;
+
+        @Override
+        protected void writeNull() {
+            jsonWriter.writeNull();
+        }
+
+        @Override
+        protected void writeBool(boolean value) {
+            jsonWriter.writeBool(value);
+        }
+
+        @Override
+        protected void writeInt(int value) {
+            jsonWriter.writeInt32(value);
+        }
+
+        @Override
+        protected void writeString(String value) {
+            jsonWriter.writeString(value);
+        }
+
+        @Override
+        protected void startArray(int size) {
+            jsonWriter.startArray();
+        }
+
+        @Override
+        protected void startElement(int index) {
+            if (index > 0) {
+                jsonWriter.writeComma();
             }
         }
-        return true;
-    }
 
-    private static Object getObjectNode(FcnRcdValue value) throws IOException {
-        if (isValidSequence(value)) {
-            return getArrayNode(value);
+        @Override
+        protected void endArray() {
+            jsonWriter.endArray();
+        }
+
+        @Override
+        protected void startObject(int size) {
+            jsonWriter.startObject();
+        }
+
+        @Override
+        protected void writeName(String name) {
+            jsonWriter.writeName(name);
+            jsonWriter.writeColon();
         }
 
-        final Value[] domain = value.getDomainAsValues();
-        JSONObject jsonObject = new JSONObject();
-        for (int i = 0; i < domain.length; i++) {
-            Value domainValue = domain[i];
-            if (domainValue instanceof StringValue) {
-                jsonObject.put(((StringValue) domainValue).val.toString(), getNode(value.values[i]));
+        @Override
+        protected void endObject() {
+            jsonWriter.endObject();
+        }
+    }
+
+    // builds the fastjson2 tree, containers are added to their parent before they are filled
+    private static class TreeBuilder extends ValueWalker {
+        private final Deque<Object> containers = new ArrayDeque<>();
+        private String name;
+        private Object root;
+
+        private void add(Object node) {
+            Object parent = containers.peek();
+            if (parent == null) {
+                root = node;
+            } else if (parent instanceof JSONArray) {
+                ((JSONArray) parent).add(node);
             } else {
-                jsonObject.put(domainValue.toString(), getNode(value.values[i]));
+                ((JSONObject) parent).put(name, node);
             }
         }
-        return jsonObject;
-    }
 
-    private static Object getObjectNode(RecordValue value) throws IOException {
-        JSONObject jsonObject = new JSONObject();
-        for (int i = 0; i < value.names.length; i++) {
-            jsonObject.put(value.names[i].toString(), getNode(value.values[i]));
+        @Override
+        protected void writeNull() {
+            add(null);
         }
-        return jsonObject;
-    }
 
-    private static Object getArrayNode(TupleValue value) throws IOException {
-        JSONArray jsonArray = new JSONArray(value.elems.length);
-        for (Value elem : value.elems) {
-            jsonArray.add(getNode(elem));
+        @Override
+        protected void writeBool(boolean value) {
+            add(value);
         }
-        return jsonArray;
-    }
 
-    private static Object getArrayNode(FcnRcdValue value) throws IOException {
-        if (!isValidSequence(value)) {
-            return getObjectNode(value);
+        @Override
+        protected void writeInt(int value) {
+            add(value);
         }
 
-        value.normalize();
-        JSONArray jsonArray = new JSONArray(value.values.length);
-        for (Value item : value.values) {
-            jsonArray.add(getNode(item));
+        @Override
+        protected void writeString(String value) {
+            add(value);
+        }
+
+        @Override
+        protected void startArray(int size) {
+            JSONArray jsonArray = new JSONArray(size);
+            add(jsonArray);
+            containers.push(jsonArray);
+        }
+
+        @Override
+        protected void endArray() {
+            containers.pop();
+        }
+
+        @Override
+        protected void startObject(int size) {
+            JSONObject jsonObject = new JSONObject();
+            add(jsonObject);
+            containers.push(jsonObject);
+        }
+
+        @Override
+        protected void writeName(String name) {
+            this.name = name;
         }
-        return jsonArray;
-    }
 
-    private static Object getArrayNode(SetEnumValue value) throws IOException {
-        value.normalize();
-        Value[] values = value.elems.toArray();
-        JSONArray jsonArray = new JSONArray(values.length);
-        for (Value item : values) {
-            jsonArray.add(getNode(item));
+        @Override
+        protected void endObject() {
+            containers.pop();
         }
-        return jsonArray;
     }
 
     private static Value getValue(Object node) throws IOException {
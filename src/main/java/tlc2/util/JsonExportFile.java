@@ -0,0 +1,238 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSON;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import tlc2.diploma.util.Lz4FrameInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An export file holding one JSON object, like a states or a value table file. {@link #scan} finds where the
+ * value of every key is stored, {@link #read} later reads one value from there without touching the rest of the file.
+ * In LZ4 compressed files a location refers to the block the value starts in and the offset in that block,
+ * reading resumes decompression at that block.
+ * <p>
+ * The file is not thread-safe.
+ */
+class JsonExportFile implements Closeable {
+    interface EntryConsumer {
+        void accept(String key, long location, int length) throws IOException;
+    }
+
+    // the largest LZ4 block is 4 MiB, an offset may point right behind its end
+    private static final int BLOCK_OFFSET_BITS = 23;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean compressed;
+    // blocks of a compressed file that values start in
+    private final LongArrayList blockPositions = new LongArrayList();
+    private final IntArrayList frameDescriptors = new IntArrayList();
+
+    JsonExportFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.compressed = ExportUtil.isCompressed(path);
+    }
+
+    /**
+     * Reads the whole file once and passes the key, location and length of every entry to the consumer.
+     */
+    void scan(EntryConsumer consumer) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+            new Scanner(compressed ? new Lz4FrameInputStream(in) : in).scan(consumer);
+        }
+    }
+
+    /**
+     * Reads a value found by {@link #scan}.
+     */
+    byte[] read(long location, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        if (!compressed) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, location + buffer.position()) < 0) {
+                    throw new EOFException(path + " is shorter than its index");
+                }
+            }
+            return bytes;
+        }
+
+        int block = (int) (location >>> BLOCK_OFFSET_BITS);
+        channel.position(blockPositions.get(block));
+        // not closed, that would close the channel
+        InputStream in = Lz4FrameInputStream.resume(
+                new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE), frameDescriptors.get(block));
+        long offset = location & ((1L << BLOCK_OFFSET_BITS) - 1);
+        while (offset > 0) {
+            long skipped = in.skip(offset);
+            if (skipped <= 0) {
+                throw new EOFException(path + " is shorter than its index");
+            }
+            offset -= skipped;
+        }
+        if (in.readNBytes(bytes, 0, length) != length) {
+            throw new EOFException(path + " is shorter than its index");
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private class Scanner {
+        private final InputStream in;
+        private final ByteArrayOutputStream key = new ByteArrayOutputStream();
+        // bytes read so far, and the end of the last value
+        private long offset = 0;
+        private long valueEnd;
+
+        Scanner(InputStream in) {
+            this.in = in;
+        }
+
+        private int next() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException(path + " ends inside its JSON object");
+            }
+            offset++;
+            return b;
+        }
+
+        private int nextToken() throws IOException {
+            int b = next();
+            while (isWhitespace(b)) {
+                b = next();
+            }
+            return b;
+        }
+
+        private boolean isWhitespace(int b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+        }
+
+        private IOException malformed(String expected) {
+            return new IOException(path + " is malformed: expected " + expected + " at byte " + (offset - 1));
+        }
+
+        // location of the byte read last
+        private long location() {
+            if (!compressed) {
+                return offset - 1;
+            }
+            Lz4FrameInputStream lz4 = (Lz4FrameInputStream) in;
+            int last = blockPositions.size() - 1;
+            if (last < 0 || blockPositions.get(last) != lz4.getBlockPosition()) {
+                blockPositions.add(lz4.getBlockPosition());
+                frameDescriptors.add(lz4.getFrameDescriptor());
+                last++;
+            }
+            return (long) last << BLOCK_OFFSET_BITS | (lz4.getBlockOffset() - 1);
+        }
+
+        void scan(EntryConsumer consumer) throws IOException {
+            if (nextToken() != '{') {
+                throw malformed("'{'");
+            }
+            int b = nextToken();
+            if (b == '}') {
+                return;
+            }
+            while (true) {
+                if (b != '"') {
+                    throw malformed("a key");
+                }
+                String name = readKey();
+                if (nextToken() != ':') {
+                    throw malformed("':'");
+                }
+                int first = nextToken();
+                long start = offset - 1;
+                long location = location();
+                b = skipValue(first);
+                consumer.accept(name, location, Math.toIntExact(valueEnd - start));
+                if (b == '}') {
+                    return;
+                }
+                if (b != ',') {
+                    throw malformed("',' or '}'");
+                }
+                b = nextToken();
+            }
+        }
+
+        private String readKey() throws IOException {
+            key.reset();
+            boolean escaped = false;
+            int b;
+            while ((b = next()) != '"') {
+                if (b == '\\') {
+                    escaped = true;
+                    key.write(b);
+                    b = next();
+                }
+                key.write(b);
+            }
+            String raw = new String(key.toByteArray(), StandardCharsets.UTF_8);
+            return escaped ? (String) JSON.parse('"' + raw + '"') : raw;
+        }
+
+        private void skipString() throws IOException {
+            int b;
+            while ((b = next()) != '"') {
+                if (b == '\\') {
+                    next();
+                }
+            }
+        }
+
+        // skips the value starting with the given byte and returns the next token behind it
+        private int skipValue(int first) throws IOException {
+            if (first == '{' || first == '[') {
+                int depth = 1;
+                while (depth > 0) {
+                    int b = next();
+                    if (b == '"') {
+                        skipString();
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (b == '}' || b == ']') {
+                        depth--;
+                    }
+                }
+                valueEnd = offset;
+                return nextToken();
+            }
+            if (first == '"') {
+                skipString();
+                valueEnd = offset;
+                return nextToken();
+            }
+
+            int b = first;
+            while (b != ',' && b != '}' && b != ']' && !isWhitespace(b)) {
+                b = next();
+            }
+            valueEnd = offset - 1;
+            return isWhitespace(b) ? nextToken() : b;
+        }
+    }
+}
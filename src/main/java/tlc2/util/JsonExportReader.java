@@ -0,0 +1,204 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the states of a JSON export folder and reconstructs them on demand: delta states are applied
+ * on top of their parents and value references are replaced by values from the value tables.
+ * A binary export has to be converted with {@link BinaryToJsonConverter} first.
+ * <p>
+ * The files are scanned once to index where every state and value is stored, records are read and
+ * parsed only when a state needs them, so the export does not have to fit in memory.
+ * The reader is not thread-safe.
+ * <p>
+ * Usage: {@code java tlc2.util.JsonExportReader <JSON export folder> <state id>...}
+ */
+public class JsonExportReader implements Closeable {
+    private final List<JsonExportFile> files = new ArrayList<>();
+
+    // file, location in the file and length of every state record, the file is -1 for missing ids
+    private final int[] stateFiles;
+    private final long[] stateLocations;
+    private final int[] stateLengths;
+
+    // fingerprint to the index of the first entry of the value in the lists below
+    private final LongIntHashMap valueIndex = new LongIntHashMap();
+    private final IntArrayList valueFiles = new IntArrayList();
+    private final LongArrayList valueLocations = new LongArrayList();
+    private final IntArrayList valueLengths = new IntArrayList();
+
+    public JsonExportReader(Path dir) throws IOException {
+        JSONObject meta = JSON.parseObject(Files.readString(dir.resolve("meta.json")));
+        if (meta.containsKey("format")) {
+            throw new IOException(dir + " is not a JSON export");
+        }
+
+        int stateCount = meta.getIntValue("state_count");
+        this.stateFiles = new int[stateCount];
+        this.stateLocations = new long[stateCount];
+        this.stateLengths = new int[stateCount];
+        Arrays.fill(stateFiles, -1);
+
+        try {
+            JSONArray stateFileNames = meta.getJSONArray("state_files");
+            for (int i = 0; i < stateFileNames.size(); i++) {
+                int file = openFile(dir.resolve(stateFileNames.getString(i)));
+                files.get(file).scan((key, location, length) -> {
+                    int id = Integer.parseInt(key);
+                    if (id < 0 || id >= stateCount) {
+                        throw new IOException("state id " + id + " is out of range, the export has " + stateCount + " states");
+                    }
+                    stateFiles[id] = file;
+                    stateLocations[id] = location;
+                    stateLengths[id] = length;
+                });
+            }
+
+            JSONArray valueFileNames = meta.getJSONArray("value_files");
+            if (valueFileNames != null) {
+                for (int i = 0; i < valueFileNames.size(); i++) {
+                    int file = openFile(dir.resolve(valueFileNames.getString(i)));
+                    files.get(file).scan((key, location, length) -> {
+                        // an evicted value can be repeated, any of its entries will do
+                        long fp = Long.parseUnsignedLong(key, 16);
+                        if (!valueIndex.containsKey(fp)) {
+                            valueIndex.put(fp, valueFiles.size());
+                            valueFiles.add(file);
+                            valueLocations.add(location);
+                            valueLengths.add(length);
+                        }
+                    });
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private int openFile(Path path) throws IOException {
+        files.add(new JsonExportFile(path));
+        return files.size() - 1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + JsonExportReader.class.getName() + " <JSON export folder> <state id>...");
+            System.exit(1);
+        }
+        try (JsonExportReader reader = new JsonExportReader(Path.of(args[0]))) {
+            for (int i = 1; i < args.length; i++) {
+                System.out.println(reader.getState(Integer.parseInt(args[i])));
+            }
+        }
+    }
+
+    public int getStateCount() {
+        return stateFiles.length;
+    }
+
+    private byte[] read(int file, long location, int length) {
+        try {
+            return files.get(file).read(location, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private JSONObject getRecord(int id) {
+        if (id < 0 || id >= stateFiles.length || stateFiles[id] < 0) {
+            throw new IllegalArgumentException("no state with id " + id);
+        }
+        return JSON.parseObject(read(stateFiles[id], stateLocations[id], stateLengths[id]));
+    }
+
+    private Object getValue(String ref) {
+        long fp = Long.parseUnsignedLong(ref, 16);
+        if (!valueIndex.containsKey(fp)) {
+            throw new IllegalStateException("no value with fingerprint " + ref);
+        }
+        int entry = valueIndex.get(fp);
+        return JSON.parse(read(valueFiles.get(entry), valueLocations.get(entry), valueLengths.get(entry)));
+    }
+
+    /**
+     * Returns all variables of the state with the given id.
+     */
+    public JSONObject getState(int id) {
+        Deque<JSONObject> deltas = new ArrayDeque<>();
+        JSONObject record = getRecord(id);
+        while (record.containsKey(ExportUtil.PARENT)) {
+            deltas.push(record);
+            record = getRecord(record.getIntValue(ExportUtil.PARENT));
+        }
+
+        JSONObject state = new JSONObject();
+        putVariables(state, record);
+        while (!deltas.isEmpty()) {
+            putVariables(state, deltas.pop());
+        }
+        return state;
+    }
+
+    private void putVariables(JSONObject state, JSONObject record) {
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            if (!ExportUtil.PARENT.equals(entry.getKey())) {
+                state.put(entry.getKey(), resolve(entry.getValue()));
+            }
+        }
+    }
+
+    private Object resolve(Object node) {
+        if (node instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) node;
+            if (jsonObject.size() == 1 && jsonObject.containsKey(JsonValueTable.REF)) {
+                return resolve(getValue(jsonObject.getString(JsonValueTable.REF)));
+            }
+            JSONObject resolved = new JSONObject();
+            for (Map.Entry<String, Object> entry : jsonObject.entrySet()) {
+                resolved.put(entry.getKey(), resolve(entry.getValue()));
+            }
+            return resolved;
+        } else if (node instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) node;
+            JSONArray resolved = new JSONArray(jsonArray.size());
+            for (Object item : jsonArray) {
+                resolved.add(resolve(item));
+            }
+            return resolved;
+        }
+        return node;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (JsonExportFile file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -1,381 +1,214 @@
 package tlc2.util;
 
 import com.alibaba.fastjson2.JSONWriter;
-import org.eclipse.collections.api.list.ImmutableList;
-import org.eclipse.collections.impl.list.primitive.IntInterval;
-import tla2sany.semantic.SemanticNode;
-import tla2sany.st.Location;
 import tlc2.TLCGlobals;
-import tlc2.diploma.graph.ConcreteAction;
-import tlc2.diploma.graph.StateGraphPathExtractor;
-import tlc2.module.TLCPE;
-import tlc2.output.EC;
-import tlc2.output.MP;
 import tlc2.tool.Action;
 import tlc2.tool.TLCState;
-import tlc2.tool.Worker;
-import tlc2.tool.impl.Tool;
-import tlc2.value.IValue;
-import tlc2.value.impl.Value;
-import util.UniqueString;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.*;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-@SuppressWarnings("unused")
-public class JsonStateWriter implements IStateWriter {
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
-    private static final String FILE_NAME_FORMAT = "%03d.json";
-
-    private final Path dir;
-    private final StateGraphPathExtractor stateGraphPathExtractor;
+public class JsonStateWriter extends PathCoverStateWriter {
     private final JSONSparseArrayWriter[] stateWriters;
     private final JSONSparseArrayWriter[] actionWriters;
+    private final JsonValueTable[] valueTables;
 
     private static final String EXPORT_DIR = System.getProperty(JsonStateWriter.class.getName() + ".dir");
+    private static final int DEDUP_DEPTH = Integer.getInteger(JsonStateWriter.class.getName() + ".dedupDepth", 0);
+    private static final int DEDUP_CACHE_SIZE = Integer.getInteger(JsonStateWriter.class.getName() + ".dedupCacheSize", 1 << 16);
+    private static final int FLUSH_SIZE = Integer.getInteger(JsonStateWriter.class.getName() + ".flushSize", 1 << 16);
 
     @SuppressWarnings("resource")
     public JsonStateWriter() throws IOException {
-        this.dir = Path.of(EXPORT_DIR);
-        this.stateGraphPathExtractor = new StateGraphPathExtractor();
+        super(Path.of(EXPORT_DIR), "JSON", ".json");
 
         int threads = TLCGlobals.getNumWorkers();
-
-        Files.deleteIfExists(this.dir.resolve("meta.json"));
-
-        Path stateDir = this.dir.resolve("states");
-        Path actionDir = this.dir.resolve("actions");
-        Files.createDirectories(stateDir);
-        Files.createDirectories(actionDir);
         this.stateWriters = new JSONSparseArrayWriter[threads];
         this.actionWriters = new JSONSparseArrayWriter[threads];
         for (int i = 0; i < threads; i++) {
-            String fileName = String.format(FILE_NAME_FORMAT, i + 1);
-            this.stateWriters[i] = new JSONSparseArrayWriter(stateDir.resolve(fileName));
-            this.actionWriters[i] = new JSONSparseArrayWriter(actionDir.resolve(fileName));
+            String fileName = getFileName(i);
+            this.stateWriters[i] = new JSONSparseArrayWriter(getStateDir().resolve(fileName));
+            this.actionWriters[i] = new JSONSparseArrayWriter(getActionDir().resolve(fileName));
         }
-    }
 
-    private int getThreadId() {
-        int id = 0;
-        Thread thread = Thread.currentThread();
-        if (thread instanceof Worker) {
-            id = ((Worker) thread).myGetId();
+        if (DEDUP_DEPTH > 0) {
+            Files.createDirectories(getValueDir());
+            this.valueTables = new JsonValueTable[threads];
+            for (int i = 0; i < threads; i++) {
+                this.valueTables[i] = new JsonValueTable(getValueDir().resolve(getFileName(i)), DEDUP_CACHE_SIZE, DEDUP_DEPTH);
+            }
+        } else {
+            this.valueTables = null;
         }
-        return id;
     }
 
-    public void writeJsonState(int index, TLCState state) {
-        int threadId = getThreadId();
-        this.stateWriters[threadId].write(jsonWriter -> {
-            jsonWriter.writeName(Integer.toString(index));
-            jsonWriter.writeColon();
-            ExportUtil.writeState(jsonWriter, state);
-        });
+    private Path getValueDir() {
+        return this.dir.resolve("values");
     }
 
-    private void writeJsonAction(int index, TLCState from, TLCState to, Action action) {
-        int threadId = getThreadId();
-        this.actionWriters[threadId].write(jsonWriter -> {
-            jsonWriter.writeName(Integer.toString(index));
+    @Override
+    protected void writeState(int threadId, int id, TLCState state) {
+        this.stateWriters[threadId].write(jsonWriter -> {
+            jsonWriter.writeName(Integer.toString(id));
             jsonWriter.writeColon();
-            ExportUtil.writeAction(jsonWriter, from, to, action);
+            ExportUtil.writeState(jsonWriter, state, this.valueTables != null ? this.valueTables[threadId] : null);
         });
     }
 
     @Override
-    public void writeState(TLCState state) {
-        int id = this.stateGraphPathExtractor.addState(state);
-        this.writeJsonState(id, state);
-    }
-
-    @Override
-    public void writeState(TLCState state, TLCState successor, short stateFlags) {
-        writeState(state, successor, stateFlags, Visualization.DEFAULT);
-    }
-
-    @Override
-    public void writeState(TLCState state, TLCState successor, short stateFlags, Action action) {
-        writeState(state, successor, 0, 0, stateFlags, Visualization.DEFAULT, action, null);
-    }
-
-    @Override
-    public void writeState(TLCState state, TLCState successor, short stateFlags, Action action, SemanticNode pred) {
-        writeState(state, successor, 0, 0, stateFlags, Visualization.DEFAULT, action, pred);
+    protected void writeStateDelta(int threadId, int id, TLCState state, int parentId, TLCState parent) {
+        this.stateWriters[threadId].write(jsonWriter -> {
+            jsonWriter.writeName(Integer.toString(id));
+            jsonWriter.writeColon();
+            ExportUtil.writeStateDelta(jsonWriter, state, parentId, parent,
+                    this.valueTables != null ? this.valueTables[threadId] : null);
+        });
     }
 
     @Override
-    public void writeState(TLCState state, TLCState successor, short stateFlags, Visualization visualization) {
-        writeState(state, successor, 0, 0, stateFlags, visualization, null, null);
+    protected void writeAction(int threadId, int id, TLCState from, TLCState to, Action action) {
+        this.actionWriters[threadId].write(jsonWriter -> {
+            jsonWriter.writeName(Integer.toString(id));
+            jsonWriter.writeColon();
+            ExportUtil.writeAction(jsonWriter, from, to, action);
+        });
     }
 
     @Override
-    public void writeState(TLCState state, TLCState successor, BitVector actionChecks, int from, int length, short stateFlags) {
-        writeState(state, successor, from, length, stateFlags, Visualization.DEFAULT, null, null);
+    protected void closeStateAndActionFiles() throws IOException {
+        for (int i = 0; i < this.stateWriters.length; i++) {
+            this.stateWriters[i].close();
+            this.actionWriters[i].close();
+            if (this.valueTables != null) {
+                this.valueTables[i].close();
+            }
+        }
     }
 
     @Override
-    public void writeState(TLCState state, TLCState successor, BitVector actionChecks, int from, int length, short stateFlags, Visualization visualization) {
-        writeState(state, successor, from, length, stateFlags, visualization, null, null);
-    }
-
-    private void writeState(TLCState state, TLCState successor, int ignoredFrom, int ignoredLength,
-                            short stateFlags, Visualization visualization, Action action, SemanticNode pred) {
-        if (visualization == Visualization.STUTTERING) {
+    protected void writeMetaEntries(JSONWriter jsonWriter) {
+        if (this.valueTables == null) {
             return;
         }
-        if (!isSet(stateFlags, IsSeen)) {
-            int id = this.stateGraphPathExtractor.addState(successor);
-            this.writeJsonState(id, successor);
-        }
-        if (state.fingerPrint() != successor.fingerPrint()) {
-            int id = this.stateGraphPathExtractor.addAction(state, successor);
-            // TODO: determine when action can be null
-            this.writeJsonAction(id, state, successor, action);
+        List<String> valueFiles = new ArrayList<>();
+        for (int i = 0; i < this.valueTables.length; i++) {
+            valueFiles.add(this.dir.relativize(getValueDir().resolve(getFileName(i))).toString());
         }
+        jsonWriter.writeName("value_files");
+        jsonWriter.writeColon();
+        jsonWriter.writeAny(valueFiles);
     }
 
     @Override
-    public boolean isNoop() {
-        return true;
-    }
-
-    @Override
-    public boolean isDot() {
-        return false;
+    protected ExecutionWriter createExecutionWriter(Path path) throws IOException {
+        return new JsonExecutionWriter(path);
     }
 
-    @Override
-    public boolean isConstrained() {
-        return false;
-    }
-
-    private String now() {
-        return DATE_FORMAT.format(new Date());
-    }
-
-    private String formatBytes(long bytes) {
-        String[] units = new String[]{"bytes", "KiB", "MiB", "GiB", "TiB"};
-        int unitIndex = (int) (Math.log10(bytes) / 3);
-        double unitValue = 1L << (unitIndex * 10);
-        return new DecimalFormat("#,##0.#")
-                .format(bytes / unitValue) + " " + units[unitIndex];
-    }
-
-    @Override
-    @SuppressWarnings("unchecked")
-    public void close() {
-        int threads = TLCGlobals.getNumWorkers();
-        try {
-            for (int i = 0; i < threads; i++) {
-                this.stateWriters[i].close();
-                this.actionWriters[i].close();
-            }
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+    private static class JsonExecutionWriter extends ExecutionWriter {
+        private final OutputStream out;
+        private final JSONWriter jsonWriter;
+        private int pathCount;
 
-        if (TLCGlobals.mainChecker.getStateQueueSize() != 0) {
-            return;
+        public JsonExecutionWriter(Path path) throws IOException {
+            this.out = ExportUtil.newOutputStream(path);
+            this.jsonWriter = JSONWriter.ofUTF8();
+            this.pathCount = 0;
+            this.jsonWriter.startArray();
         }
 
-        Tool tool = (Tool) TLCGlobals.mainChecker.tool;
-        List<Location> actionLocations = Arrays.stream(tool.getActions())
-                .map(Action::getDeclaration)
-                .distinct()
-                .collect(Collectors.toList());
-
-        Map<Location, UniqueString> actionNames = Arrays.stream(tool.getActions())
-                .collect(Collectors.groupingBy(Action::getDeclaration,
-                        Collectors.reducing(null, Action::getName, (x, y) -> x == null ? y : x)));
-        Map<Location, Long> actionLocCount = Arrays.stream(tool.getActions())
-                .collect(Collectors.groupingBy(Action::getDeclaration, Collectors.counting()));
-
-        MP.printMessage(EC.GENERAL, "Found " + tool.getActions().length + " actions (" + actionLocations.size() + " distinct):");
-        for (Location loc : actionLocations) {
-            MP.printMessage(EC.GENERAL, "  " + actionNames.get(loc) + ": " + actionLocCount.get(loc));
+        private void startArray() {
+            if (pathCount > 0) {
+                jsonWriter.writeComma();
+            }
+            jsonWriter.startArray();
         }
 
-        MP.printMessage(EC.GENERAL, "Path cover JSON exporting started.");
-
-        Iterable<List<StateGraphPathExtractor.Edge>> paths = this.stateGraphPathExtractor.extractPaths();
-
-        Path metaFile = this.dir.resolve("meta.json");
-        try {
-            Files.deleteIfExists(metaFile);
-        } catch (IOException ignored) {
+        @Override
+        protected void startPath(int from) {
+            startArray();
+            jsonWriter.writeInt32(from);
         }
 
-        int pathCount = this.stateGraphPathExtractor.getPathCount();
-
-        // write executions
-        Path execDir = this.dir.resolve("executions");
-        try {
-            Files.createDirectories(execDir);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        @Override
+        protected void writeStep(int id, int to) throws IOException {
+            jsonWriter.writeComma();
+            jsonWriter.writeInt32(id);
+            jsonWriter.writeComma();
+            jsonWriter.writeInt32(to);
+            flushIfFull();
         }
 
-        Iterator<List<StateGraphPathExtractor.Edge>> pathIterator = paths.iterator();
-        for (int i = 0, l = 0; i < threads; i++) {
-            int div = pathCount / threads, mod = pathCount % threads;
-            int r = l + div + (i < mod ? 1 : 0);
-
-            String execFileName = String.format(FILE_NAME_FORMAT, i + 1);
-            Path execFile = execDir.resolve(execFileName);
-
-            try (BufferedWriter writer = Files.newBufferedWriter(execFile);
-                 JSONWriter jsonWriter = JSONWriter.ofUTF8()) {
-                jsonWriter.startArray();
-                for (int j = l; j < r; j++) {
-                    if (j > l) {
-                        jsonWriter.writeComma();
-                    }
-                    List<StateGraphPathExtractor.Edge> path = pathIterator.next();
-                    jsonWriter.startArray();
-                    if (!path.isEmpty()) {
-                        jsonWriter.writeInt32(path.get(0).getFrom());
-                    }
-                    for (StateGraphPathExtractor.Edge edge : path) {
-                        jsonWriter.writeComma();
-                        jsonWriter.writeInt32(edge.getId());
-                        jsonWriter.writeComma();
-                        jsonWriter.writeInt32(edge.getTo());
-                    }
-                    jsonWriter.endArray();
-                    if ((j - l) % 1024 == 1023) {
-                        jsonWriter.flushTo(writer);
-                    }
-                }
-                jsonWriter.endArray();
-                jsonWriter.flushTo(writer);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+        @Override
+        protected void endPath(boolean empty) throws IOException {
+            if (empty) {
+                startArray();
             }
-
-            long fileSize = execFile.toFile().length();
-            MP.printMessage(EC.GENERAL, "  " + this.dir.relativize(execFile) + " (" + formatBytes(fileSize) + ")");
-
-            l = r;
+            jsonWriter.endArray();
+            pathCount++;
+            flushIfFull();
         }
 
-        // write meta file
-        try (BufferedWriter writer = Files.newBufferedWriter(metaFile);
-             JSONWriter jsonWriter = JSONWriter.ofUTF8()) {
-            jsonWriter.startObject();
-
-            jsonWriter.writeName("start_time");
-            jsonWriter.writeColon();
-            jsonWriter.writeString(now());
-
-            ExportUtil.writeTlaModule(jsonWriter);
-
-            ExportUtil.writeTlaConstants(jsonWriter);
-
-            ImmutableList<String> fileNames = IntInterval.oneTo(threads)
-                    .collect(i -> String.format(FILE_NAME_FORMAT, i));
-
-            jsonWriter.writeName("state_count");
-            jsonWriter.writeColon();
-            jsonWriter.writeInt32(this.stateGraphPathExtractor.getStateCount());
-
-            jsonWriter.writeName("state_files");
-            jsonWriter.writeColon();
-            jsonWriter.writeAny(fileNames.collect(f -> this.dir.relativize(this.dir.resolve("states").resolve(f)).toString()));
-
-            jsonWriter.writeName("action_count");
-            jsonWriter.writeColon();
-            jsonWriter.writeInt32(this.stateGraphPathExtractor.getActionCount());
-
-            jsonWriter.writeName("action_files");
-            jsonWriter.writeColon();
-            jsonWriter.writeAny(fileNames.collect(f -> this.dir.relativize(this.dir.resolve("actions").resolve(f)).toString()));
-
-            jsonWriter.writeName("execution_count");
-            jsonWriter.writeColon();
-            jsonWriter.writeInt32(pathCount);
-
-            jsonWriter.writeName("execution_files");
-            jsonWriter.writeColon();
-            jsonWriter.writeAny(fileNames.collect(f -> this.dir.relativize(this.dir.resolve("executions").resolve(f)).toString()));
-
-            jsonWriter.endObject();
-            jsonWriter.flushTo(writer);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        private void flushIfFull() throws IOException {
+            if (jsonWriter.size() >= FLUSH_SIZE) {
+                jsonWriter.flushTo(out);
+            }
         }
 
-        long totalSize = -1;
-        try (Stream<Path> walkStream = Files.walk(this.dir, 2)) {
-            totalSize = walkStream
-                    .filter(p -> p.toFile().isFile())
-                    .mapToLong(p -> p.toFile().length())
-                    .sum();
-        } catch (IOException ignored) {
+        @Override
+        public void close() throws IOException {
+            this.jsonWriter.endArray();
+            this.jsonWriter.flushTo(this.out);
+            this.jsonWriter.close();
+            this.out.close();
         }
-
-        MP.printMessage(EC.GENERAL, "Path cover successfully exported ("
-                + (totalSize != -1 ? formatBytes(totalSize) : "unknown size") + ", " + now() + ").");
-    }
-
-    @Override
-    public String getDumpFileName() {
-        return null;
     }
 
-    @Override
-    public void snapshot() {
-        // No operations
-    }
-
-    private static class JSONSparseArrayWriter implements Closeable {
-        private final BufferedWriter writer;
+    /**
+     * Writes records of a JSON object keyed by id. Serialized records are handed to a background thread
+     * whenever at least {@code flushSize} bytes are buffered, so the calling worker does not wait for the disk.
+     */
+    static class JSONSparseArrayWriter implements Closeable {
+        private final OutputStream out;
         private final JSONWriter jsonWriter;
-        private int flushCounter;
-        private final int flushPeriod;
-        private static final int DEFAULT_FLUSH_PERIOD = 128;
+        private final int flushSize;
 
-        public JSONSparseArrayWriter(Path path, int flushPeriod) throws IOException {
-            this.writer = Files.newBufferedWriter(path);
+        public JSONSparseArrayWriter(Path path, int flushSize) throws IOException {
+            this.out = ExportUtil.newAsyncOutputStream(path);
             this.jsonWriter = JSONWriter.ofUTF8();
-            this.flushCounter = 0;
-            this.flushPeriod = flushPeriod;
+            this.flushSize = flushSize;
 
             this.jsonWriter.startObject();
-            this.jsonWriter.flushTo(this.writer);
         }
 
         public JSONSparseArrayWriter(Path path) throws IOException {
-            this(path, DEFAULT_FLUSH_PERIOD);
+            this(path, FLUSH_SIZE);
         }
 
         public void write(Consumer<JSONWriter> consumer) {
             consumer.accept(jsonWriter);
 
-            flushCounter++;
-            if (flushCounter >= flushPeriod) {
-                flushCounter = 0;
-                jsonWriter.flushTo(writer);
+            if (jsonWriter.size() >= flushSize) {
+                try {
+                    jsonWriter.flushTo(out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
             }
         }
 
         @Override
         public void close() throws IOException {
-            this.jsonWriter.endObject();
-            this.jsonWriter.flushTo(this.writer);
-            this.jsonWriter.close();
-            this.writer.close();
+            try (out; jsonWriter) {
+                this.jsonWriter.endObject();
+                this.jsonWriter.flushTo(this.out);
+            }
         }
     }
 }
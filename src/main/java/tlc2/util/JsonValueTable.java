@@ -0,0 +1,63 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSONWriter;
+import tlc2.diploma.util.LongLruSet;
+import tlc2.value.IValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Per-worker table of composite values that exported states refer to as {@code {"$ref": "<fingerprint>"}}.
+ * The table file is a JSON object from hexadecimal TLC fingerprints to values, which may contain
+ * references themselves. A value is appended once it is not among the recently written ones, so a value
+ * evicted from the cache can be repeated in the file. The repeated entries resolve to equal values but are
+ * not necessarily byte-identical: sub-values are replaced by references only up to the dedup depth, counted
+ * from the state being written, so the same value reached at another depth gets more or fewer nested refs.
+ */
+class JsonValueTable implements Closeable {
+    static final String REF = "$ref";
+
+    private final JsonStateWriter.JSONSparseArrayWriter writer;
+    private final LongLruSet written;
+    private final int maxDepth;
+
+    JsonValueTable(Path path, int cacheSize, int maxDepth) throws IOException {
+        this.writer = new JsonStateWriter.JSONSparseArrayWriter(path);
+        this.written = new LongLruSet(cacheSize);
+        this.maxDepth = maxDepth;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    void writeRef(JSONWriter jsonWriter, IValue value, int depth) throws IOException {
+        long fp = value.fingerPrint(FP64.New());
+        String ref = Long.toHexString(fp);
+        if (written.add(fp)) {
+            // sub-values are appended to the table while the content is written, so it is buffered separately
+            byte[] content;
+            try (JSONWriter contentWriter = JSONWriter.ofUTF8()) {
+                FastJsonSerializer.writeContent(contentWriter, value, this, depth);
+                content = contentWriter.getBytes();
+            }
+            writer.write(tableWriter -> {
+                tableWriter.writeName(ref);
+                tableWriter.writeColon();
+                tableWriter.writeRaw(content);
+            });
+        }
+        jsonWriter.startObject();
+        jsonWriter.writeName(REF);
+        jsonWriter.writeColon();
+        jsonWriter.writeString(ref);
+        jsonWriter.endObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,438 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSONWriter;
+import org.eclipse.collections.api.list.ImmutableList;
+import org.eclipse.collections.impl.list.primitive.IntInterval;
+import tla2sany.semantic.SemanticNode;
+import tla2sany.st.Location;
+import tlc2.TLCGlobals;
+import tlc2.diploma.graph.StateGraphPathExtractor;
+import tlc2.diploma.graph.algo.FlowPathExtractor;
+import tlc2.diploma.graph.algo.FlowPathExtractor.PathSink;
+import tlc2.output.EC;
+import tlc2.output.MP;
+import tlc2.tool.Action;
+import tlc2.tool.TLCState;
+import tlc2.tool.Worker;
+import tlc2.tool.impl.Tool;
+import util.UniqueString;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Common part of the path cover exporters: builds the state graph while TLC runs, extracts the path
+ * cover once model checking is finished and writes the {@code meta.json} manifest. Subclasses decide
+ * how states, actions and executions are stored in the per-worker files.
+ */
+@SuppressWarnings("unused")
+public abstract class PathCoverStateWriter implements IStateWriter {
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
+    private static final boolean DELTA_STATES = Boolean.getBoolean(PathCoverStateWriter.class.getName() + ".deltaStates");
+    private static final String CODEC = System.getProperty(PathCoverStateWriter.class.getName() + ".codec", "none");
+    private static final String LZ4_CODEC = "lz4";
+
+    protected final Path dir;
+    protected final StateGraphPathExtractor stateGraphPathExtractor;
+    private final String formatName;
+    private final String fileNameFormat;
+
+    protected PathCoverStateWriter(Path dir, String formatName, String fileExtension) throws IOException {
+        this.dir = dir;
+        this.stateGraphPathExtractor = new StateGraphPathExtractor();
+        this.formatName = formatName;
+        this.fileNameFormat = "%03d" + fileExtension + getCodecExtension();
+
+        Files.deleteIfExists(this.dir.resolve("meta.json"));
+        Files.createDirectories(getStateDir());
+        Files.createDirectories(getActionDir());
+    }
+
+    private static String getCodecExtension() {
+        switch (CODEC) {
+            case "none":
+                return "";
+            case LZ4_CODEC:
+                return ExportUtil.LZ4_EXTENSION;
+            default:
+                throw new IllegalArgumentException("unknown codec: " + CODEC);
+        }
+    }
+
+    protected Path getStateDir() {
+        return this.dir.resolve("states");
+    }
+
+    protected Path getActionDir() {
+        return this.dir.resolve("actions");
+    }
+
+    protected String getFileName(int index) {
+        return String.format(fileNameFormat, index + 1);
+    }
+
+    protected int getThreadId() {
+        int id = 0;
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            id = ((Worker) thread).myGetId();
+        }
+        return id;
+    }
+
+    protected abstract void writeState(int threadId, int id, TLCState state);
+
+    /**
+     * Writes only the variables of the state that differ from the already written parent state.
+     */
+    protected abstract void writeStateDelta(int threadId, int id, TLCState state, int parentId, TLCState parent);
+
+    protected abstract void writeAction(int threadId, int id, TLCState from, TLCState to, Action action);
+
+    /**
+     * Closes the per-worker state and action files, called before the path cover is extracted.
+     */
+    protected abstract void closeStateAndActionFiles() throws IOException;
+
+    protected abstract ExecutionWriter createExecutionWriter(Path path) throws IOException;
+
+    /**
+     * Writes format specific entries of the manifest.
+     */
+    protected void writeMetaEntries(JSONWriter jsonWriter) {
+    }
+
+    @Override
+    public void writeState(TLCState state) {
+        int id = this.stateGraphPathExtractor.addState(state);
+        this.writeState(getThreadId(), id, state);
+    }
+
+    @Override
+    public void writeState(TLCState state, TLCState successor, short stateFlags) {
+        writeState(state, successor, stateFlags, Visualization.DEFAULT);
+    }
+
+    @Override
+    public void writeState(TLCState state, TLCState successor, short stateFlags, Action action) {
+        writeState(state, successor, 0, 0, stateFlags, Visualization.DEFAULT, action, null);
+    }
+
+    @Override
+    public void writeState(TLCState state, TLCState successor, short stateFlags, Action action, SemanticNode pred) {
+        writeState(state, successor, 0, 0, stateFlags, Visualization.DEFAULT, action, pred);
+    }
+
+    @Override
+    public void writeState(TLCState state, TLCState successor, short stateFlags, Visualization visualization) {
+        writeState(state, successor, 0, 0, stateFlags, visualization, null, null);
+    }
+
+    @Override
+    public void writeState(TLCState state, TLCState successor, BitVector actionChecks, int from, int length, short stateFlags) {
+        writeState(state, successor, from, length, stateFlags, Visualization.DEFAULT, null, null);
+    }
+
+    @Override
+    public void writeState(TLCState state, TLCState successor, BitVector actionChecks, int from, int length, short stateFlags, Visualization visualization) {
+        writeState(state, successor, from, length, stateFlags, visualization, null, null);
+    }
+
+    private void writeState(TLCState state, TLCState successor, int ignoredFrom, int ignoredLength,
+                            short stateFlags, Visualization visualization, Action action, SemanticNode pred) {
+        if (visualization == Visualization.STUTTERING) {
+            return;
+        }
+        if (!isSet(stateFlags, IsSeen)) {
+            int id = this.stateGraphPathExtractor.addState(successor);
+            int parentId = DELTA_STATES ? this.stateGraphPathExtractor.getStateId(state) : -1;
+            if (parentId != -1) {
+                this.writeStateDelta(getThreadId(), id, successor, parentId, state);
+            } else {
+                this.writeState(getThreadId(), id, successor);
+            }
+        }
+        if (state.fingerPrint() != successor.fingerPrint()) {
+            int id = this.stateGraphPathExtractor.addAction(state, successor);
+            // TODO: determine when action can be null
+            this.writeAction(getThreadId(), id, state, successor, action);
+        }
+    }
+
+    @Override
+    public boolean isNoop() {
+        return true;
+    }
+
+    @Override
+    public boolean isDot() {
+        return false;
+    }
+
+    @Override
+    public boolean isConstrained() {
+        return false;
+    }
+
+    private String now() {
+        return DATE_FORMAT.format(new Date());
+    }
+
+    private String formatBytes(long bytes) {
+        String[] units = new String[]{"bytes", "KiB", "MiB", "GiB", "TiB"};
+        int unitIndex = (int) (Math.log10(bytes) / 3);
+        double unitValue = 1L << (unitIndex * 10);
+        return new DecimalFormat("#,##0.#")
+                .format(bytes / unitValue) + " " + units[unitIndex];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void close() {
+        int threads = TLCGlobals.getNumWorkers();
+        try {
+            closeStateAndActionFiles();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (TLCGlobals.mainChecker.getStateQueueSize() != 0) {
+            closeStateGraph();
+            return;
+        }
+
+        Tool tool = (Tool) TLCGlobals.mainChecker.tool;
+        List<Location> actionLocations = Arrays.stream(tool.getActions())
+                .map(Action::getDeclaration)
+                .distinct()
+                .collect(Collectors.toList());
+
+        Map<Location, UniqueString> actionNames = Arrays.stream(tool.getActions())
+                .collect(Collectors.groupingBy(Action::getDeclaration,
+                        Collectors.reducing(null, Action::getName, (x, y) -> x == null ? y : x)));
+        Map<Location, Long> actionLocCount = Arrays.stream(tool.getActions())
+                .collect(Collectors.groupingBy(Action::getDeclaration, Collectors.counting()));
+
+        MP.printMessage(EC.GENERAL, "Found " + tool.getActions().length + " actions (" + actionLocations.size() + " distinct):");
+        for (Location loc : actionLocations) {
+            MP.printMessage(EC.GENERAL, "  " + actionNames.get(loc) + ": " + actionLocCount.get(loc));
+        }
+
+        MP.printMessage(EC.GENERAL, "Path cover " + formatName + " exporting started.");
+
+        FlowPathExtractor paths = this.stateGraphPathExtractor.extractPaths();
+
+        Path metaFile = this.dir.resolve("meta.json");
+        try {
+            Files.deleteIfExists(metaFile);
+        } catch (IOException ignored) {
+        }
+
+        int pathCount = this.stateGraphPathExtractor.getPathCount();
+
+        // write executions
+        Path execDir = this.dir.resolve("executions");
+        try {
+            Files.createDirectories(execDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Path[] execFiles = new Path[threads];
+        for (int i = 0; i < threads; i++) {
+            execFiles[i] = execDir.resolve(getFileName(i));
+        }
+
+        if (paths.isConcurrent()) {
+            writeExecutionsConcurrently(execFiles, paths);
+        } else {
+            for (int i = 0, l = 0; i < threads; i++) {
+                int div = pathCount / threads, mod = pathCount % threads;
+                int r = l + div + (i < mod ? 1 : 0);
+
+                try (ExecutionWriter execWriter = createExecutionWriter(execFiles[i])) {
+                    for (int j = l; j < r; j++) {
+                        execWriter.writeNextPath(paths);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                l = r;
+            }
+        }
+
+        closeStateGraph();
+
+        for (Path execFile : execFiles) {
+            long fileSize = execFile.toFile().length();
+            MP.printMessage(EC.GENERAL, "  " + this.dir.relativize(execFile) + " (" + formatBytes(fileSize) + ")");
+        }
+
+        // write meta file
+        try (OutputStream out = Files.newOutputStream(metaFile);
+             JSONWriter jsonWriter = JSONWriter.ofUTF8()) {
+            jsonWriter.startObject();
+
+            jsonWriter.writeName("start_time");
+            jsonWriter.writeColon();
+            jsonWriter.writeString(now());
+
+            ExportUtil.writeTlaModule(jsonWriter);
+
+            ExportUtil.writeTlaConstants(jsonWriter);
+
+            if (LZ4_CODEC.equals(CODEC)) {
+                jsonWriter.writeName("codec");
+                jsonWriter.writeColon();
+                jsonWriter.writeString(LZ4_CODEC);
+            }
+
+            writeMetaEntries(jsonWriter);
+
+            ImmutableList<String> fileNames = IntInterval.zeroTo(threads - 1)
+                    .collect(this::getFileName);
+
+            jsonWriter.writeName("state_count");
+            jsonWriter.writeColon();
+            jsonWriter.writeInt32(this.stateGraphPathExtractor.getStateCount());
+
+            jsonWriter.writeName("state_files");
+            jsonWriter.writeColon();
+            jsonWriter.writeAny(fileNames.collect(f -> this.dir.relativize(getStateDir().resolve(f)).toString()));
+
+            jsonWriter.writeName("action_count");
+            jsonWriter.writeColon();
+            jsonWriter.writeInt32(this.stateGraphPathExtractor.getActionCount());
+
+            jsonWriter.writeName("action_files");
+            jsonWriter.writeColon();
+            jsonWriter.writeAny(fileNames.collect(f -> this.dir.relativize(getActionDir().resolve(f)).toString()));
+
+            jsonWriter.writeName("execution_count");
+            jsonWriter.writeColon();
+            jsonWriter.writeInt32(pathCount);
+
+            jsonWriter.writeName("execution_files");
+            jsonWriter.writeColon();
+            jsonWriter.writeAny(fileNames.collect(f -> this.dir.relativize(execDir.resolve(f)).toString()));
+
+            jsonWriter.endObject();
+            jsonWriter.flushTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long totalSize = -1;
+        try (Stream<Path> walkStream = Files.walk(this.dir, 2)) {
+            totalSize = walkStream
+                    .filter(p -> p.toFile().isFile())
+                    .mapToLong(p -> p.toFile().length())
+                    .sum();
+        } catch (IOException ignored) {
+        }
+
+        MP.printMessage(EC.GENERAL, "Path cover successfully exported ("
+                + (totalSize != -1 ? formatBytes(totalSize) : "unknown size") + ", " + now() + ").");
+    }
+
+    private void closeStateGraph() {
+        try {
+            this.stateGraphPathExtractor.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String getDumpFileName() {
+        return null;
+    }
+
+    @Override
+    public void snapshot() {
+        // No operations
+    }
+
+    // every thread claims paths until none are left and writes them to its own file
+    private void writeExecutionsConcurrently(Path[] execFiles, FlowPathExtractor paths) {
+        ExecutorService executor = Executors.newFixedThreadPool(execFiles.length);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path execFile : execFiles) {
+                futures.add(executor.submit(() -> {
+                    try (ExecutionWriter execWriter = createExecutionWriter(execFile)) {
+                        while (true) {
+                            if (!execWriter.writeNextPath(paths)) {
+                                break;
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Writes paths one by one: a path is its first state followed by action and state ids.
+     * A path without actions is written as an empty one.
+     */
+    protected abstract static class ExecutionWriter implements PathSink, Closeable {
+        private boolean pathStarted;
+
+        protected abstract void startPath(int from) throws IOException;
+
+        protected abstract void writeStep(int id, int to) throws IOException;
+
+        protected abstract void endPath(boolean empty) throws IOException;
+
+        public boolean writeNextPath(FlowPathExtractor paths) throws IOException {
+            pathStarted = false;
+            if (!paths.tryNextPath(this)) {
+                return false;
+            }
+            endPath(!pathStarted);
+            return true;
+        }
+
+        @Override
+        public void accept(int id, int from, int to) throws IOException {
+            if (!pathStarted) {
+                startPath(from);
+                pathStarted = true;
+            }
+            writeStep(id, to);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package tlc2.util;
+
+import java.io.IOException;
+
+import tlc2.value.IValue;
+import tlc2.value.impl.BoolValue;
+import tlc2.value.impl.FcnLambdaValue;
+import tlc2.value.impl.FcnRcdValue;
+import tlc2.value.impl.IntValue;
+import tlc2.value.impl.IntervalValue;
+import tlc2.value.impl.ModelValue;
+import tlc2.value.impl.RecordValue;
+import tlc2.value.impl.SetEnumValue;
+import tlc2.value.impl.SetOfFcnsValue;
+import tlc2.value.impl.SetOfRcdsValue;
+import tlc2.value.impl.SetOfTuplesValue;
+import tlc2.value.impl.StringValue;
+import tlc2.value.impl.SubsetValue;
+import tlc2.value.impl.TupleValue;
+import tlc2.value.impl.Value;
+
+/**
+ * Maps TLC values onto the JSON data model in one place: records and functions that are not sequences
+ * become objects, tuples, sequences and sets become arrays, strings and model values become strings.
+ * Subclasses receive the resulting structure, {@link FastJsonSerializer} writes it as JSON and
+ * {@link BinarySerializer} in the binary export format.
+ */
+abstract class ValueWalker {
+    protected abstract void writeNull() throws IOException;
+
+    protected abstract void writeBool(boolean value) throws IOException;
+
+    protected abstract void writeInt(int value) throws IOException;
+
+    protected abstract void writeString(String value) throws IOException;
+
+    protected abstract void startArray(int size) throws IOException;
+
+    /**
+     * Called before every element of the current array.
+     */
+    protected void startElement(int index) throws IOException {
+    }
+
+    protected abstract void endArray() throws IOException;
+
+    protected abstract void startObject(int size) throws IOException;
+
+    /**
+     * Writes a key of the current object, followed by its value.
+     */
+    protected abstract void writeName(String name) throws IOException;
+
+    protected abstract void endObject() throws IOException;
+
+    /**
+     * Writes a value nested {@code depth} levels deep, subclasses may write something else in its place.
+     */
+    protected void writeValue(IValue value, int depth) throws IOException {
+        writeContent(value, depth);
+    }
+
+    static boolean isComposite(IValue value) {
+        return value instanceof RecordValue || value instanceof TupleValue || value instanceof FcnRcdValue
+                || value instanceof FcnLambdaValue || value instanceof SetEnumValue || value instanceof SetOfRcdsValue
+                || value instanceof SetOfTuplesValue || value instanceof SetOfFcnsValue || value instanceof SubsetValue
+                || value instanceof IntervalValue;
+    }
+
+    static boolean isValidSequence(FcnRcdValue value) {
+        final Value[] domain = value.getDomainAsValues();
+        for (Value d : domain) {
+            if (!(d instanceof IntValue)) {
+                return false;
+            }
+        }
+        value.normalize();
+        for (int i = 0; i < domain.length; i++) {
+            // TODO: fix this hack
+            if (((IntValue) domain[i]).val != (i + 1) && ((IntValue) domain[i]).val != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the value itself, its sub-values go through {@link #writeValue(IValue, int)}.
+     */
+    final void writeContent(IValue value, int depth) throws IOException {
+        if (value == null) {
+            writeNull();
+        } else if (value instanceof RecordValue) {
+            writeObject((RecordValue) value, depth);
+        } else if (value instanceof TupleValue) {
+            writeArray(((TupleValue) value).elems, depth);
+        } else if (value instanceof StringValue) {
+            writeString(((StringValue) value).val.toString());
+        } else if (value instanceof ModelValue) {
+            writeString(((ModelValue) value).val.toString());
+        } else if (value instanceof IntValue) {
+            writeInt(((IntValue) value).val);
+        } else if (value instanceof BoolValue) {
+            writeBool(((BoolValue) value).val);
+        } else if (value instanceof FcnRcdValue) {
+            writeObject((FcnRcdValue) value, depth);
+        } else if (value instanceof FcnLambdaValue) {
+            writeObject((FcnRcdValue) ((FcnLambdaValue) value).toFcnRcd(), depth);
+        } else if (value instanceof SetEnumValue) {
+            writeArray((SetEnumValue) value, depth);
+        } else if (value instanceof SetOfRcdsValue) {
+            writeArray((SetEnumValue) ((SetOfRcdsValue) value).toSetEnum(), depth);
+        } else if (value instanceof SetOfTuplesValue) {
+            writeArray((SetEnumValue) ((SetOfTuplesValue) value).toSetEnum(), depth);
+        } else if (value instanceof SetOfFcnsValue) {
+            writeArray((SetEnumValue) ((SetOfFcnsValue) value).toSetEnum(), depth);
+        } else if (value instanceof SubsetValue) {
+            writeArray((SetEnumValue) ((SubsetValue) value).toSetEnum(), depth);
+        } else if (value instanceof IntervalValue) {
+            writeArray((SetEnumValue) ((IntervalValue) value).toSetEnum(), depth);
+        } else {
+            throw new IOException("Cannot convert value: unsupported value type " + value.getClass().getName());
+        }
+    }
+
+    private void writeObject(RecordValue value, int depth) throws IOException {
+        startObject(value.names.length);
+        for (int i = 0; i < value.names.length; i++) {
+            writeName(value.names[i].toString());
+            writeValue(value.values[i], depth + 1);
+        }
+        endObject();
+    }
+
+    private void writeObject(FcnRcdValue value, int depth) throws IOException {
+        if (isValidSequence(value)) {
+            writeArray(value.values, depth);
+            return;
+        }
+
+        final Value[] domain = value.getDomainAsValues();
+        startObject(domain.length);
+        for (int i = 0; i < domain.length; i++) {
+            Value domainValue = domain[i];
+            if (domainValue instanceof StringValue) {
+                writeName(((StringValue) domainValue).val.toString());
+            } else {
+                writeName(domainValue.toString());
+            }
+            writeValue(value.values[i], depth + 1);
+        }
+        endObject();
+    }
+
+    private void writeArray(Value[] values, int depth) throws IOException {
+        startArray(values.length);
+        for (int i = 0; i < values.length; i++) {
+            startElement(i);
+            writeValue(values[i], depth + 1);
+        }
+        endArray();
+    }
+
+    private void writeArray(SetEnumValue value, int depth) throws IOException {
+        value.normalize();
+        startArray(value.elems.size());
+        for (int i = 0; i < value.elems.size(); i++) {
+            startElement(i);
+            writeValue(value.elems.elementAt(i), depth + 1);
+        }
+        endArray();
+    }
+}
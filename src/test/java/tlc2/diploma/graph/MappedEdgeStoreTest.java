@@ -0,0 +1,36 @@
+package tlc2.diploma.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedEdgeStoreTest {
+    @Test
+    void storesEdgesUntilClosed(@TempDir Path dir) throws IOException {
+        MappedEdgeStore store = new MappedEdgeStore(dir);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, store.add(i, i + 1, i % 7, i % 2 == 0));
+        }
+        store.incFlow(5, 3);
+        assertTrue(store.compareAndSetFlow(5, 3, 4));
+        assertEquals(4, store.getFlow(5));
+        assertEquals(999, store.getFrom(999));
+        assertEquals(1000, store.getTo(999));
+        assertEquals(5, store.getCapacity(999));
+        assertTrue(store.hasAction(998));
+        assertFalse(store.hasAction(999));
+
+        store.close();
+        assertEquals(0, store.size());
+        // the file channel is closed, so no segment can be mapped anymore
+        assertThrows(UncheckedIOException.class, () -> store.add(0, 1, 1, false));
+    }
+}
@@ -0,0 +1,145 @@
+package tlc2.diploma.graph.algo;
+
+import org.junit.jupiter.api.Test;
+import tlc2.diploma.graph.StateNetwork;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentAcyclicFlowPathExtractorTest {
+    private static final int RANDOM_GRAPHS = 100;
+    private static final int THREADS = 4;
+    private static final int OPTIMIZER_ITERATIONS = 8;
+
+    // the network of an acyclic state graph with the optimized flow of StateGraphPathExtractor
+    private static StateNetwork optimizedNetwork(int stateCount, int[][] actions) {
+        StateNetwork network = PathCoverNetworks.network(stateCount, actions);
+        ParallelTopologicalSorter sorter = new ParallelTopologicalSorter(network);
+        sorter.sort();
+        assertTrue(sorter.isAcyclic());
+        new ParallelDagMaxFlowSolver(network, sorter).findMaxFlow();
+        new HeuristicNetworkPathOptimizer(network, OPTIMIZER_ITERATIONS).optimizePaths();
+        return network;
+    }
+
+    // paths are extracted from a circulation in which every action carries one more unit of flow
+    private static StateNetwork toCirculation(StateNetwork network) {
+        for (int i = 0; i < network.getEdgeCount(); i += 2) {
+            if (network.hasAction(i)) {
+                network.incFlow(i, 1);
+            }
+        }
+        return network;
+    }
+
+    // every path is a list of {action, from, to} triples
+    private static Queue<int[][]> extractConcurrently(FlowPathExtractor extractor) throws InterruptedException {
+        Queue<int[][]> paths = new ConcurrentLinkedQueue<>();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    List<int[]> path = new ArrayList<>();
+                    while (extractor.tryNextPath((id, from, to) -> path.add(new int[]{id, from, to}))) {
+                        paths.add(path.toArray(new int[0][]));
+                        path.clear();
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty(), () -> "extraction failed: " + failures);
+        return paths;
+    }
+
+    private static int[] takenActions(int actionCount, Iterable<int[][]> paths) {
+        int[] taken = new int[actionCount];
+        for (int[][] path : paths) {
+            for (int[] action : path) {
+                taken[action[0]]++;
+            }
+        }
+        return taken;
+    }
+
+    private static void assertExtractsSamePaths(int stateCount, int[][] actions) throws InterruptedException {
+        StateNetwork network = optimizedNetwork(stateCount, actions);
+        int pathCount = PathCoverNetworks.pathCount(network);
+        toCirculation(network);
+        int[] flows = new int[actions.length];
+        for (int i = 0; i < actions.length; i++) {
+            flows[i] = network.getFlow(2 * i);
+        }
+
+        FlowPathExtractor concurrent = new ConcurrentAcyclicFlowPathExtractor(network, pathCount);
+        assertTrue(concurrent.isConcurrent());
+        Queue<int[][]> paths = extractConcurrently(concurrent);
+        assertFalse(concurrent.hasNextPath());
+        assertEquals(pathCount, paths.size());
+        for (int[][] path : paths) {
+            int state = 0;
+            for (int[] action : path) {
+                assertEquals(state, action[1], "path is not a walk from the initial state");
+                assertArrayEquals(actions[action[0]], new int[]{action[1], action[2]});
+                state = action[2];
+            }
+        }
+        // every unit of flow is taken by exactly one path, and every action carries at least one
+        int[] taken = takenActions(actions.length, paths);
+        assertArrayEquals(flows, taken);
+        for (int i = 0; i < actions.length; i++) {
+            assertTrue(taken[i] > 0, "action " + i + " is not covered");
+        }
+
+        FlowPathExtractor sequential = new AcyclicFlowPathExtractor(
+                toCirculation(optimizedNetwork(stateCount, actions)), pathCount);
+        List<int[][]> sequentialPaths = new ArrayList<>();
+        while (sequential.hasNextPath()) {
+            List<int[]> path = new ArrayList<>();
+            try {
+                sequential.nextPath((id, from, to) -> path.add(new int[]{id, from, to}));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            sequentialPaths.add(path.toArray(new int[0][]));
+        }
+        assertEquals(paths.size(), sequentialPaths.size());
+        assertArrayEquals(taken, takenActions(actions.length, sequentialPaths));
+    }
+
+    @Test
+    void extractsEveryActionOnSeveralThreads() throws InterruptedException {
+        assertExtractsSamePaths(4, new int[][]{{0, 1}, {0, 2}, {1, 3}, {2, 3}});
+        assertExtractsSamePaths(3, new int[][]{{0, 1}, {1, 1}, {1, 2}, {1, 2}, {0, 2}});
+        assertExtractsSamePaths(1, new int[0][]);
+    }
+
+    @Test
+    void extractsEveryActionOfRandomDagsOnSeveralThreads() throws InterruptedException {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_GRAPHS; i++) {
+            int stateCount = 1 + random.nextInt(i % 10 == 0 ? 2000 : 100);
+            assertExtractsSamePaths(stateCount, PathCoverNetworks.randomActions(random, stateCount, true));
+        }
+    }
+}
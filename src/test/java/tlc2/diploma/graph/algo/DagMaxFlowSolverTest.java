@@ -0,0 +1,109 @@
+package tlc2.diploma.graph.algo;
+
+import org.junit.jupiter.api.Test;
+import tlc2.diploma.graph.StateNetwork;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DagMaxFlowSolverTest {
+    private static final int RANDOM_GRAPHS = 200;
+
+    private static ParallelTopologicalSorter sort(StateNetwork network) {
+        ParallelTopologicalSorter sorter = new ParallelTopologicalSorter(network);
+        sorter.sort();
+        return sorter;
+    }
+
+    private static void assertSameFlow(int stateCount, int[][] actions) {
+        StateNetwork naive = PathCoverNetworks.network(stateCount, actions);
+        StateNetwork parallel = PathCoverNetworks.network(stateCount, actions);
+        ParallelTopologicalSorter naiveSorter = sort(naive), parallelSorter = sort(parallel);
+        assertTrue(naiveSorter.isAcyclic());
+        assertTrue(parallelSorter.isAcyclic());
+
+        new NaiveMaxFlowSolver(naive, naiveSorter).findMaxFlow();
+        new ParallelDagMaxFlowSolver(parallel, parallelSorter).findMaxFlow();
+        for (int i = 0; i < naive.getEdgeCount(); i += 2) {
+            assertEquals(naive.getFlow(i), parallel.getFlow(i), "flows of edge " + i + " differ");
+        }
+        assertEquals(PathCoverNetworks.pathCount(naive), PathCoverNetworks.pathCount(parallel));
+    }
+
+    @Test
+    void parallelSolverFindsTheFlowOfTheNaiveSolver() {
+        // a diamond, a state with a self-loop and parallel actions
+        assertSameFlow(4, new int[][]{{0, 1}, {0, 2}, {1, 3}, {2, 3}});
+        assertSameFlow(3, new int[][]{{0, 1}, {1, 1}, {1, 2}, {1, 2}, {0, 2}});
+        assertSameFlow(1, new int[0][]);
+    }
+
+    @Test
+    void parallelSolverFindsTheFlowOfTheNaiveSolverOnRandomDags() {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_GRAPHS; i++) {
+            int stateCount = 1 + random.nextInt(i % 10 == 0 ? 2000 : 40);
+            assertSameFlow(stateCount, PathCoverNetworks.randomActions(random, stateCount, true));
+        }
+    }
+
+    @Test
+    void selfLoopsOfTheInitialStateArePathsOfTheirOwn() {
+        StateNetwork network = PathCoverNetworks.network(3, new int[][]{{0, 0}, {0, 1}, {0, 0}, {1, 2}, {1, 1}});
+        new ParallelDagMaxFlowSolver(network, sort(network)).findMaxFlow();
+        assertEquals(3, PathCoverNetworks.pathCount(network));
+        for (int i = 0; i < network.getEdgeCount(); i += 2) {
+            if (network.hasAction(i)) {
+                assertTrue(network.getFlow(i) >= 0, "action " + i / 2 + " has no lower bound");
+            }
+        }
+    }
+
+    @Test
+    void sorterOrdersStatesByLevels() {
+        StateNetwork network = PathCoverNetworks.network(5, new int[][]{{0, 1}, {0, 2}, {1, 3}, {2, 3}, {3, 3}, {0, 4}});
+        ParallelTopologicalSorter sorter = sort(network);
+        assertTrue(sorter.isAcyclic());
+        assertEquals(5, sorter.getOrderSize());
+        assertEquals(3, sorter.getLevelCount());
+
+        int[] level = new int[network.getNodeCount()];
+        int[] order = sorter.getOrder(), levelOffsets = sorter.getLevelOffsets();
+        for (int k = 0; k < sorter.getLevelCount(); k++) {
+            for (int i = levelOffsets[k]; i < levelOffsets[k + 1]; i++) {
+                level[order[i]] = k;
+            }
+        }
+        for (int i = 0; i < network.getEdgeCount(); i += 2) {
+            if (network.hasAction(i) && network.getFrom(i) != network.getTo(i)) {
+                assertTrue(level[network.getFrom(i)] < level[network.getTo(i)], "edge " + i + " is not ordered");
+            }
+        }
+    }
+
+    @Test
+    void sorterDetectsCycles() {
+        // a cycle that is not reachable from the initial state, the rest of the graph is acyclic
+        int[][] actions = {{0, 1}, {1, 2}, {3, 4}, {4, 5}, {5, 3}};
+        StateNetwork network = PathCoverNetworks.network(6, actions);
+        ParallelTopologicalSorter sorter = sort(network);
+        assertFalse(sorter.isAcyclic());
+        assertThrows(IllegalArgumentException.class, () -> new NaiveMaxFlowSolver(network, sorter));
+        assertThrows(IllegalArgumentException.class, () -> new ParallelDagMaxFlowSolver(network, sorter));
+
+        Random random = new Random(2);
+        for (int i = 0; i < RANDOM_GRAPHS / 10; i++) {
+            int stateCount = 2 + random.nextInt(40);
+            int[][] dag = PathCoverNetworks.randomActions(random, stateCount, true);
+            int[][] cyclic = Arrays.copyOf(dag, dag.length + 1);
+            // every state is reachable from the initial one, so an action back to it closes a cycle
+            cyclic[dag.length] = new int[]{1 + random.nextInt(stateCount - 1), 0};
+            assertFalse(sort(PathCoverNetworks.network(stateCount, cyclic)).isAcyclic());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package tlc2.diploma.graph.algo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import tlc2.TLCGlobals;
+import tlc2.diploma.graph.StateNetwork;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MaxFlowSolverTest {
+    private static final int RANDOM_NETWORKS = 300;
+    // far deeper than the call stack allows for a recursive search
+    private static final int CHAIN_LENGTH = 200_000;
+    private static final int WORKERS = 4;
+    private static final int REPETITIONS = 10;
+
+    private static MaxFlowSolver solver(String name, StateNetwork network) {
+        switch (name) {
+            case "dinic":
+                return new DinicMaxFlowSolver(network);
+            case "parallelDinic":
+                return new ParallelDinicMaxFlowSolver(network);
+            case "pushRelabel":
+                return new PushRelabelMaxFlowSolver(network);
+            case "parallelPushRelabel":
+                return new ParallelPushRelabelMaxFlowSolver(network);
+            default:
+                throw new IllegalArgumentException("unknown max flow solver: " + name);
+        }
+    }
+
+    // edges are {from, to, capacity}, node 0 is the source and the last node is the sink
+    private static StateNetwork network(int nodeCount, int[][] edges) {
+        StateNetwork network = new StateNetwork();
+        for (int i = 0; i < nodeCount; i++) {
+            network.addNode(null);
+        }
+        for (int[] edge : edges) {
+            network.addEdge(edge[0], edge[1], edge[2]);
+        }
+        network.shutdown();
+        network.freeze();
+        return network;
+    }
+
+    // Edmonds-Karp on a capacity matrix, parallel edges are merged and self-loops dropped
+    private static long referenceMaxFlow(int nodeCount, int[][] edges) {
+        long[][] residual = new long[nodeCount][nodeCount];
+        for (int[] edge : edges) {
+            if (edge[0] != edge[1]) {
+                residual[edge[0]][edge[1]] += edge[2];
+            }
+        }
+        int source = 0, sink = nodeCount - 1;
+        long flow = 0;
+        int[] parent = new int[nodeCount];
+        while (true) {
+            Arrays.fill(parent, -1);
+            parent[source] = source;
+            Queue<Integer> queue = new ArrayDeque<>();
+            queue.add(source);
+            while (!queue.isEmpty() && parent[sink] == -1) {
+                int v = queue.remove();
+                for (int u = 0; u < nodeCount; u++) {
+                    if (parent[u] == -1 && residual[v][u] > 0) {
+                        parent[u] = v;
+                        queue.add(u);
+                    }
+                }
+            }
+            if (parent[sink] == -1) {
+                return flow;
+            }
+            long df = Long.MAX_VALUE;
+            for (int v = sink; v != source; v = parent[v]) {
+                df = Math.min(df, residual[parent[v]][v]);
+            }
+            for (int v = sink; v != source; v = parent[v]) {
+                residual[parent[v]][v] -= df;
+                residual[v][parent[v]] += df;
+            }
+            flow += df;
+        }
+    }
+
+    // checks capacities and conservation and returns the value of the flow
+    private static long checkFlow(StateNetwork network) {
+        long[] excess = new long[network.getNodeCount()];
+        for (int i = 0; i < network.getEdgeCount(); i += 2) {
+            int flow = network.getFlow(i);
+            assertTrue(flow >= 0 && flow <= network.getCapacity(i),
+                    "flow " + flow + " exceeds capacity " + network.getCapacity(i) + " of edge " + i);
+            excess[network.getFrom(i)] -= flow;
+            excess[network.getTo(i)] += flow;
+        }
+        int source = network.getSource(), sink = network.getSink();
+        for (int v = 0; v < excess.length; v++) {
+            if (v != source && v != sink) {
+                assertEquals(0, excess[v], "flow is not conserved at node " + v);
+            }
+        }
+        assertEquals(-excess[source], excess[sink]);
+        return excess[sink];
+    }
+
+    private static void assertMaxFlow(String solver, int nodeCount, int[][] edges) {
+        StateNetwork network = network(nodeCount, edges);
+        solver(solver, network).findMaxFlow();
+        assertEquals(referenceMaxFlow(nodeCount, edges), checkFlow(network));
+    }
+
+    private static int[][] randomEdges(Random random, int nodeCount) {
+        int[][] edges = new int[random.nextInt(4 * nodeCount + 1)][];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = new int[]{random.nextInt(nodeCount), random.nextInt(nodeCount), random.nextInt(10)};
+        }
+        return edges;
+    }
+
+    @Test
+    void referenceSolvesKnownNetwork() {
+        // the textbook network of Cormen et al. with a maximum flow of 23
+        assertEquals(23, referenceMaxFlow(6, new int[][]{{0, 1, 16}, {0, 2, 13}, {1, 3, 12}, {2, 1, 4},
+                {2, 4, 14}, {3, 2, 9}, {3, 5, 20}, {4, 3, 7}, {4, 5, 4}}));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dinic", "parallelDinic", "pushRelabel", "parallelPushRelabel"})
+    void solvesCyclicNetworks(String solver) {
+        assertMaxFlow(solver, 6, new int[][]{{0, 1, 16}, {0, 2, 13}, {1, 3, 12}, {2, 1, 4},
+                {2, 4, 14}, {3, 2, 9}, {3, 5, 20}, {4, 3, 7}, {4, 5, 4}});
+        // a cycle through the source and the sink
+        assertMaxFlow(solver, 4, new int[][]{{0, 1, 5}, {1, 2, 3}, {2, 0, 2}, {2, 3, 4}, {3, 1, 7}, {1, 3, 1}});
+        // flow has to be pushed back along an edge of the cycle
+        assertMaxFlow(solver, 5, new int[][]{{0, 1, 1}, {0, 2, 1}, {1, 2, 1}, {2, 3, 1}, {3, 1, 1}, {1, 4, 1},
+                {3, 4, 1}});
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dinic", "parallelDinic", "pushRelabel", "parallelPushRelabel"})
+    void solvesNetworksWithSelfLoopsAndParallelEdges(String solver) {
+        assertMaxFlow(solver, 3, new int[][]{{0, 0, 4}, {0, 1, 2}, {0, 1, 3}, {1, 1, 9}, {1, 2, 1}, {1, 2, 6},
+                {2, 2, 5}});
+        assertMaxFlow(solver, 2, new int[][]{{0, 1, 1}, {0, 1, 1}, {0, 1, 1}, {1, 0, 8}});
+        // no path to the sink
+        assertMaxFlow(solver, 3, new int[][]{{0, 0, 1}, {0, 1, 5}, {1, 1, 5}, {2, 1, 5}});
+        assertMaxFlow(solver, 2, new int[0][]);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dinic", "parallelDinic", "pushRelabel", "parallelPushRelabel"})
+    void solvesRandomNetworks(String solver) {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_NETWORKS; i++) {
+            int nodeCount = 2 + random.nextInt(30);
+            assertMaxFlow(solver, nodeCount, randomEdges(random, nodeCount));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dinic", "parallelDinic", "pushRelabel", "parallelPushRelabel"})
+    void solvesDeepChains(String solver) {
+        // a chain to the sink with back edges, every augmenting path runs through all of its nodes
+        int[][] edges = new int[2 * (CHAIN_LENGTH - 1)][];
+        for (int i = 0; i + 1 < CHAIN_LENGTH; i++) {
+            edges[2 * i] = new int[]{i, i + 1, 3};
+            edges[2 * i + 1] = new int[]{i + 1, i, 1};
+        }
+        StateNetwork network = network(CHAIN_LENGTH, edges);
+        solver(solver, network).findMaxFlow();
+        assertEquals(3, checkFlow(network));
+    }
+
+    // the threads of the parallel push-relabel solver race for the same nodes, so the networks are solved repeatedly
+    @Test
+    void parallelPushRelabelSolvesRepeatedlyOnSeveralWorkers() {
+        int workers = TLCGlobals.getNumWorkers();
+        TLCGlobals.setNumWorkers(WORKERS);
+        try {
+            for (int run = 0; run < REPETITIONS; run++) {
+                Random random = new Random(1);
+                for (int i = 0; i < RANDOM_NETWORKS / REPETITIONS; i++) {
+                    int nodeCount = 2 + random.nextInt(30);
+                    assertMaxFlow("parallelPushRelabel", nodeCount, randomEdges(random, nodeCount));
+                }
+                int nodeCount = 500 + random.nextInt(500);
+                assertMaxFlow("parallelPushRelabel", nodeCount, randomEdges(new Random(run), nodeCount));
+            }
+        } finally {
+            TLCGlobals.setNumWorkers(workers);
+        }
+    }
+}
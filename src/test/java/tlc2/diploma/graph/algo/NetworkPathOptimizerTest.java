@@ -0,0 +1,63 @@
+package tlc2.diploma.graph.algo;
+
+import org.junit.jupiter.api.Test;
+import tlc2.diploma.graph.StateNetwork;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NetworkPathOptimizerTest {
+    private static final int RANDOM_GRAPHS = 200;
+
+    // path count after the initial Dinic flow of a state graph with cycles is optimized like StateGraphPathExtractor does
+    private static int optimizedPathCount(int stateCount, int[][] actions, boolean minCost) {
+        StateNetwork network = PathCoverNetworks.network(stateCount, actions);
+        new DinicMaxFlowSolver(network).findMaxFlow();
+        int initialPathCount = PathCoverNetworks.pathCount(network);
+        NetworkPathOptimizer optimizer = minCost
+                ? new MinCostNetworkPathOptimizer(network)
+                : new BFSNetworkPathOptimizer(network);
+        optimizer.optimizePaths();
+        int pathCount = PathCoverNetworks.pathCount(network);
+        assertTrue(pathCount <= initialPathCount);
+        return pathCount;
+    }
+
+    private static void assertMinimumPathCount(int expected, int stateCount, int[][] actions) {
+        int minCost = optimizedPathCount(stateCount, actions, true);
+        assertTrue(minCost <= optimizedPathCount(stateCount, actions, false));
+        assertEquals(expected, minCost);
+    }
+
+    @Test
+    void findsMinimumPathCountOfKnownGraphs() {
+        // a cycle hanging off a chain, left at its last state: 0 1 2 3 1 2 3 4
+        assertMinimumPathCount(1, 5, new int[][]{{0, 1}, {1, 2}, {2, 3}, {3, 1}, {3, 4}});
+        // two cycles sharing a node, one of them with an exit: 0 1 2 1 3 4 1 3 4 5
+        assertMinimumPathCount(1, 6, new int[][]{{0, 1}, {1, 2}, {2, 1}, {1, 3}, {3, 4}, {4, 1}, {4, 5}});
+        // cycles sharing a node with a parallel action, a self-loop at one exit: 0 5 and 0 1 2 1 2 3 1 2 3 1 2 3 4 4
+        assertMinimumPathCount(2, 6, new int[][]{{0, 1}, {1, 2}, {2, 3}, {3, 4}, {0, 5}, {4, 4}, {2, 1}, {3, 1},
+                {3, 1}});
+        // two cycles, each with an exit to a state without successors: 0 1 2 1 3 4 5 and 0 1 2 6
+        assertMinimumPathCount(2, 7, new int[][]{{0, 1}, {1, 2}, {2, 1}, {1, 3}, {3, 4}, {4, 1}, {4, 5}, {2, 6}});
+        // a cycle entered by two branches: 0 1 3 4 3 and 0 2 3
+        assertMinimumPathCount(2, 5, new int[][]{{0, 1}, {0, 2}, {1, 3}, {2, 3}, {3, 4}, {4, 3}});
+        // a path ends once it returns to the initial state,
+        // so a cycle through it with self-loops takes 0 0, 0 1 2 2 0 and 0 1 2 3
+        assertMinimumPathCount(3, 4, new int[][]{{0, 0}, {0, 1}, {1, 2}, {2, 0}, {2, 2}, {2, 3}});
+        // three dead ends behind a cycle need three paths
+        assertMinimumPathCount(3, 6, new int[][]{{0, 1}, {1, 2}, {2, 1}, {2, 3}, {2, 4}, {2, 5}});
+    }
+
+    @Test
+    void minCostOptimizerRemovesAtLeastAsManyPathsAsBfsOptimizer() {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_GRAPHS; i++) {
+            int stateCount = 1 + random.nextInt(40);
+            int[][] actions = PathCoverNetworks.randomActions(random, stateCount, false);
+            assertTrue(optimizedPathCount(stateCount, actions, true) <= optimizedPathCount(stateCount, actions, false));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package tlc2.diploma.graph.algo;
+
+import tlc2.diploma.graph.StateNetwork;
+
+import java.util.Random;
+
+/**
+ * Builds path cover networks of state graphs like {@code StateGraphPathExtractor} does. States are numbered from 0,
+ * state {@code i} is node {@code i + 1} and state 0 is the initial one. Actions are {@code {from, to}} pairs of states.
+ */
+final class PathCoverNetworks {
+    private PathCoverNetworks() {
+    }
+
+    static StateNetwork network(int stateCount, int[][] actions) {
+        StateNetwork network = new StateNetwork();
+        network.addNode(null); // source
+        for (int i = 0; i < stateCount; i++) {
+            network.addNode(null);
+        }
+        for (int[] action : actions) {
+            network.addEdge(action[0] + 1, action[1] + 1, StateNetwork.INF, true);
+        }
+        network.addNode(null); // sink
+        network.shutdown();
+
+        int[] degInOutDiffs = new int[network.getNodeCount()];
+        for (int i = 0; i < network.getEdgeCount(); i += 2) {
+            degInOutDiffs[network.getFrom(i)]--;
+            degInOutDiffs[network.getTo(i)]++;
+        }
+        for (int i = 1; i <= stateCount; i++) {
+            if (degInOutDiffs[i] > 0) {
+                network.addEdge(network.getSource(), i, degInOutDiffs[i]);
+            } else if (degInOutDiffs[i] < 0) {
+                network.addEdge(i, network.getSink(), -degInOutDiffs[i]);
+            }
+            if (i != network.getRoot()) {
+                network.addEdge(i, network.getRoot(), StateNetwork.INF / 2);
+            }
+        }
+        network.freeze();
+        return network;
+    }
+
+    // the number of paths starting at the initial state that a flow of the network stands for
+    static int pathCount(StateNetwork network) {
+        int pathCount = 0;
+        for (int i = 0; i < network.getEdgeCount(); i += 2) {
+            if (network.getFrom(i) != network.getSource() && network.getTo(i) == network.getRoot()) {
+                pathCount += network.getFlow(i) + (network.hasAction(i) ? 1 : 0);
+            }
+        }
+        return pathCount;
+    }
+
+    /**
+     * Returns actions of a random state graph in which every state is reachable from the initial one. In an acyclic graph
+     * actions lead to states with greater numbers, except for self-loops, which the path cover ignores when ordering states.
+     */
+    static int[][] randomActions(Random random, int stateCount, boolean acyclic) {
+        int[][] actions = new int[stateCount - 1 + random.nextInt(2 * stateCount)][];
+        for (int i = 1; i < stateCount; i++) {
+            actions[i - 1] = new int[]{random.nextInt(i), i};
+        }
+        for (int i = stateCount - 1; i < actions.length; i++) {
+            int from = random.nextInt(stateCount), to = random.nextInt(stateCount);
+            if (acyclic && from > to) {
+                actions[i] = new int[]{to, from};
+            } else {
+                actions[i] = new int[]{from, to};
+            }
+        }
+        return actions;
+    }
+}
@@ -0,0 +1,77 @@
+package tlc2.diploma.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncBlockOutputStreamTest {
+    private static final int BLOCK_SIZE = 16;
+
+    private static class TestStream extends AsyncBlockOutputStream {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final RuntimeException failure;
+        private boolean failed;
+
+        TestStream(RuntimeException failure) {
+            super(BLOCK_SIZE, 2, "test-async-block");
+            this.failure = failure;
+        }
+
+        @Override
+        protected void writeBlock(byte[] data, int size) {
+            if (failure != null) {
+                throw failure;
+            }
+            out.write(data, 0, size);
+        }
+
+        @Override
+        protected void flushOutput() {
+        }
+
+        @Override
+        protected void closeOutput(boolean failed) {
+            this.failed = failed;
+        }
+    }
+
+    @Test
+    void writesAllBlocksInOrder() throws IOException {
+        byte[] data = new byte[10 * BLOCK_SIZE + 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        TestStream stream = new TestStream(null);
+        try (stream) {
+            stream.write(data, 0, 5);
+            stream.write(data[5]);
+            stream.flush();
+            stream.write(data, 6, data.length - 6);
+        }
+        assertArrayEquals(data, stream.out.toByteArray());
+    }
+
+    @Test
+    void reportsRuntimeExceptionsOfTheBackgroundThread() {
+        IllegalStateException failure = new IllegalStateException("broken block");
+        TestStream stream = new TestStream(failure);
+        IOException e = assertThrows(IOException.class, () -> {
+            try (stream) {
+                stream.write(new byte[3 * BLOCK_SIZE]);
+            }
+        });
+        assertTrue(stream.failed);
+
+        Throwable cause = e;
+        while (cause.getCause() != null && cause != failure) {
+            cause = cause.getCause();
+        }
+        assertSame(failure, cause);
+    }
+}
@@ -0,0 +1,195 @@
+package tlc2.diploma.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Lz4Test {
+    // inputs shorter than this are written as literals only
+    private static final int MF_LIMIT = 12;
+    private static final int FRAME_OVERHEAD = Lz4Codec.frameHeader().length + 2 * Integer.BYTES;
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Lz4FrameOutputStream lz4 = new Lz4FrameOutputStream(out)) {
+            lz4.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] frame) throws IOException {
+        try (Lz4FrameInputStream in = new Lz4FrameInputStream(new ByteArrayInputStream(frame))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] roundTrip(byte[] data) throws IOException {
+        byte[] frame = compress(data);
+        assertArrayEquals(data, decompress(frame));
+        return frame;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    void writesTheFrameHeaderOfIndependent64KiBBlocks() {
+        // magic number, FLG version 01 with independent blocks, BD 64 KiB, descriptor checksum
+        assertArrayEquals(hex("04224d18604082"), Lz4Codec.frameHeader());
+    }
+
+    @Test
+    void hashesLikeXxHash32() {
+        assertEquals(0x02CC5D05, Lz4Codec.xxHash32(new byte[0], 0, 0, 0));
+        assertEquals(0x550D7456, Lz4Codec.xxHash32("a".getBytes(StandardCharsets.US_ASCII), 0, 1, 0));
+        assertEquals(0x32D153FF, Lz4Codec.xxHash32("abc".getBytes(StandardCharsets.US_ASCII), 0, 3, 0));
+    }
+
+    // frames written by the reference implementation (liblz4, LZ4_compress_default) with the same frame settings
+    @Test
+    void writesTheSameFramesAsTheReferenceImplementation() throws IOException {
+        assertArrayEquals(hex("04224d1860408200000000"), roundTrip(new byte[0]));
+        assertArrayEquals(hex("04224d1860408203000080544c4300000000"),
+                roundTrip("TLC".getBytes(StandardCharsets.US_ASCII)));
+        assertArrayEquals(hex("04224d186040820d0000003f61626303001050636162632100000000"),
+                roundTrip("abcabcabcabcabcabcabcabcabcabcabcabcabcabc!".getBytes(StandardCharsets.US_ASCII)));
+        assertArrayEquals(hex("04224d1860408230000000e02230223a7b2278223a317d2c22310c00b024706172656e74223a302c"
+                        + "180059327d2c2232180080312c2278223a337d00000000"),
+                roundTrip("\"0\":{\"x\":1},\"1\":{\"$parent\":0,\"x\":2},\"2\":{\"$parent\":1,\"x\":3}"
+                        .getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void readsReferenceFramesWithChecksums() throws IOException {
+        // content and block checksums, both skipped
+        assertArrayEquals("abcabcabcabcabcabcabcabcabcabcabcabcabcabc!".getBytes(StandardCharsets.US_ASCII),
+                decompress(hex("04224d187440bd0d0000003f616263030010506361626321ac1ce56c00000000afb6627a")));
+        assertArrayEquals(new byte[0], decompress(hex("04224d187440bd00000000055dcc02")));
+    }
+
+    @Test
+    void roundTripsInputsShorterThanTheMatchLimit() throws IOException {
+        Random random = new Random(1);
+        for (int length = 0; length <= MF_LIMIT + 1; length++) {
+            byte[] zeros = new byte[length];
+            roundTrip(zeros);
+            roundTrip(randomBytes(random, length));
+
+            byte[] block = new byte[Lz4Codec.maxCompressedLength(length)];
+            int compressedLength = Lz4Codec.compress(zeros, 0, length, block, 0, new int[Lz4Codec.HASH_TABLE_SIZE]);
+            byte[] decompressed = new byte[length];
+            assertEquals(length, Lz4Codec.decompress(block, 0, compressedLength, decompressed, 0, length));
+        }
+    }
+
+    @Test
+    void storesIncompressibleBlocksUncompressed() throws IOException {
+        byte[] data = randomBytes(new Random(2), 3 * Lz4Codec.MAX_BLOCK_SIZE + 17);
+        byte[] frame = roundTrip(data);
+        // one size field per block and no expansion beyond that
+        assertEquals(data.length + FRAME_OVERHEAD + 3 * Integer.BYTES, frame.length);
+    }
+
+    @Test
+    void compressesRepetitiveData() throws IOException {
+        byte[] zeros = new byte[1 << 20];
+        assertTrue(roundTrip(zeros).length < zeros.length / 100);
+
+        byte[] pattern = new byte[1 << 20];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) ((i / 7) % 13);
+        }
+        assertTrue(roundTrip(pattern).length < pattern.length / 50);
+    }
+
+    @Test
+    void roundTripsOverlappingMatches() throws IOException {
+        // matches at distance 1 and 2 copy bytes they have just written themselves
+        for (String seed : new String[]{"a", "ab", "abc", "abcdefg"}) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 1000) {
+                text.append(seed);
+            }
+            text.append("xyz");
+            roundTrip(text.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void roundTripsMultipleBlocksWrittenInPieces() throws IOException {
+        Random random = new Random(3);
+        byte[] data = new byte[5 * Lz4Codec.MAX_BLOCK_SIZE + 1234];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Lz4FrameOutputStream lz4 = new Lz4FrameOutputStream(out)) {
+            int written = 0;
+            while (written < data.length) {
+                int length = Math.min(data.length - written, random.nextInt(100_000) + 1);
+                if (length == 1) {
+                    lz4.write(data[written]);
+                } else {
+                    lz4.write(data, written, length);
+                }
+                written += length;
+                if (random.nextInt(5) == 0) {
+                    // flushing writes a short block
+                    lz4.flush();
+                }
+            }
+        }
+        assertArrayEquals(data, decompress(out.toByteArray()));
+    }
+
+    @Test
+    void readsConcatenatedAndSkippableFrames() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream unclosable = new FilterOutputStream(out) {
+            @Override
+            public void close() {
+            }
+        };
+        try (Lz4FrameOutputStream lz4 = new Lz4FrameOutputStream(unclosable)) {
+            lz4.write("hello ".getBytes(StandardCharsets.US_ASCII));
+        }
+        // a skippable frame with three bytes of user data
+        out.write(hex("502a4d1803000000010203"));
+        try (Lz4FrameOutputStream lz4 = new Lz4FrameOutputStream(out)) {
+            lz4.write("world".getBytes(StandardCharsets.US_ASCII));
+        }
+        assertArrayEquals("hello world".getBytes(StandardCharsets.US_ASCII), decompress(out.toByteArray()));
+    }
+
+    @Test
+    void rejectsTruncatedFrames() throws IOException {
+        byte[] frame = compress(randomBytes(new Random(4), 1000));
+        assertThrows(EOFException.class, () -> decompress(Arrays.copyOf(frame, frame.length - 10)));
+        assertThrows(IOException.class, () -> decompress(hex("04224d19604082")));
+    }
+}
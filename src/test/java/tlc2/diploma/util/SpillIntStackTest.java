@@ -0,0 +1,103 @@
+package tlc2.diploma.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillIntStackTest {
+    private static final int BLOCK_INTS = SpillFile.DEFAULT_BLOCK_BYTES / Integer.BYTES;
+
+    // takes the whole shared budget until closed, so that collections spill every block they can
+    static SpillFile exhaustBudget() {
+        SpillFile budget = new SpillFile();
+        while (budget.tryAcquireBlock()) {
+            // keep acquiring
+        }
+        return budget;
+    }
+
+    @Test
+    void popsInReverseOrderWithinBudget() throws IOException {
+        try (SpillIntStack stack = new SpillIntStack()) {
+            for (int i = 0; i < 5 * BLOCK_INTS; i++) {
+                stack.push(i);
+            }
+            assertEquals(5 * BLOCK_INTS, stack.size());
+            for (int i = 5 * BLOCK_INTS - 1; i >= 0; i--) {
+                assertEquals(i, stack.peek());
+                assertEquals(i, stack.pop());
+            }
+            assertTrue(stack.isEmpty());
+            assertFalse(stack.isSpilled());
+        }
+    }
+
+    @Test
+    void spillsWhenBudgetIsExhausted() throws IOException {
+        try (SpillFile budget = exhaustBudget(); SpillIntStack stack = new SpillIntStack()) {
+            int count = 10 * BLOCK_INTS + 17;
+            for (int i = 0; i < count; i++) {
+                stack.push(i * 31);
+            }
+            assertTrue(stack.isSpilled());
+            for (int i = count - 1; i >= 0; i--) {
+                assertEquals(i * 31, stack.pop());
+            }
+            assertTrue(stack.isEmpty());
+        }
+    }
+
+    @Test
+    void keepsOrderWhenOscillatingAcrossSpilledBlocks() throws IOException {
+        Random random = new Random(1);
+        int[] expected = new int[20 * BLOCK_INTS];
+        int size = 0;
+        try (SpillFile budget = exhaustBudget(); SpillIntStack stack = new SpillIntStack()) {
+            for (int step = 0; step < 20_000; step++) {
+                // drift upwards in bursts that cross block boundaries in both directions
+                boolean push = size == 0 || (size < expected.length && random.nextInt(100) < 55);
+                int burst = 1 + random.nextInt(BLOCK_INTS / 2);
+                for (int k = 0; k < burst; k++) {
+                    if (push && size < expected.length) {
+                        expected[size] = random.nextInt();
+                        stack.push(expected[size++]);
+                    } else if (!push && size > 0) {
+                        assertEquals(expected[--size], stack.pop());
+                    }
+                }
+                assertEquals(size, stack.size());
+            }
+            while (size > 0) {
+                assertEquals(expected[--size], stack.pop());
+            }
+        }
+    }
+
+    @Test
+    void returnsBudgetOnClose() throws IOException {
+        long available = SpillFile.getAvailableBudget();
+        try (SpillIntStack stack = new SpillIntStack()) {
+            for (int i = 0; i < 8 * BLOCK_INTS; i++) {
+                stack.push(i);
+            }
+            assertTrue(SpillFile.getAvailableBudget() < available);
+        }
+        assertEquals(available, SpillFile.getAvailableBudget());
+    }
+
+    @Test
+    void rejectsPopOfEmptyStack() throws IOException {
+        try (SpillIntStack stack = new SpillIntStack()) {
+            assertThrows(IllegalStateException.class, stack::pop);
+            stack.push(1);
+            stack.pop();
+            assertThrows(IllegalStateException.class, stack::peek);
+        }
+    }
+}
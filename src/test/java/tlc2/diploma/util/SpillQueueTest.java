@@ -0,0 +1,98 @@
+package tlc2.diploma.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillQueueTest {
+    private static final int BLOCK_INTS = SpillFile.DEFAULT_BLOCK_BYTES / Integer.BYTES;
+
+    private static void fillAndDrain(SpillIntQueue queue, int count) {
+        for (int i = 0; i < count; i++) {
+            queue.offer(i);
+        }
+        assertEquals(count, queue.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, queue.peek());
+            assertEquals(i, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void pollsInOfferOrderWithinBudget() throws IOException {
+        try (SpillIntQueue queue = new SpillIntQueue()) {
+            fillAndDrain(queue, 6 * BLOCK_INTS + 5);
+            assertFalse(queue.isSpilled());
+        }
+    }
+
+    @Test
+    void spillsWhenBudgetIsExhausted() throws IOException {
+        try (SpillFile budget = SpillIntStackTest.exhaustBudget(); SpillIntQueue queue = new SpillIntQueue()) {
+            fillAndDrain(queue, 12 * BLOCK_INTS + 3);
+            assertTrue(queue.isSpilled());
+            // the spill file is reused once the disk part is drained
+            fillAndDrain(queue, 4 * BLOCK_INTS);
+        }
+    }
+
+    @Test
+    void keepsOrderWhenBudgetRunsOutMidway() throws IOException {
+        Random random = new Random(2);
+        ArrayDeque<Long> expected = new ArrayDeque<>();
+        SpillFile budget = null;
+        try (SpillLongQueue queue = new SpillLongQueue()) {
+            for (int step = 0; step < 300_000; step++) {
+                if (step == 100_000) {
+                    // blocks kept in memory so far stay in front of the spilled ones
+                    budget = SpillIntStackTest.exhaustBudget();
+                } else if (step == 200_000) {
+                    budget.close();
+                }
+                if (expected.isEmpty() || random.nextInt(100) < 60) {
+                    long value = random.nextLong();
+                    queue.offer(value);
+                    expected.addLast(value);
+                } else {
+                    assertEquals(expected.pollFirst(), queue.poll());
+                }
+                assertEquals(expected.size(), queue.size());
+            }
+            assertTrue(queue.isSpilled());
+            while (!expected.isEmpty()) {
+                assertEquals(expected.pollFirst(), queue.poll());
+            }
+        } finally {
+            if (budget != null) {
+                budget.close();
+            }
+        }
+    }
+
+    @Test
+    void returnsBudgetOnClose() throws IOException {
+        long available = SpillFile.getAvailableBudget();
+        try (SpillIntQueue queue = new SpillIntQueue()) {
+            for (int i = 0; i < 8 * BLOCK_INTS; i++) {
+                queue.offer(i);
+            }
+            assertTrue(SpillFile.getAvailableBudget() < available);
+        }
+        assertEquals(available, SpillFile.getAvailableBudget());
+    }
+
+    @Test
+    void rejectsPollOfEmptyQueue() throws IOException {
+        try (SpillIntQueue queue = new SpillIntQueue()) {
+            assertThrows(IllegalStateException.class, queue::poll);
+        }
+    }
+}
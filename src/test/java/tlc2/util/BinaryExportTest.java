@@ -0,0 +1,230 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tlc2.value.impl.BoolValue;
+import tlc2.value.impl.FcnRcdValue;
+import tlc2.value.impl.IntValue;
+import tlc2.value.impl.RecordValue;
+import tlc2.value.impl.SetEnumValue;
+import tlc2.value.impl.StringValue;
+import tlc2.value.impl.TupleValue;
+import tlc2.value.impl.Value;
+import util.UniqueString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryExportTest {
+    private static RecordValue record(String[] names, Value... values) {
+        UniqueString[] keys = new UniqueString[names.length];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = UniqueString.uniqueStringOf(names[i]);
+        }
+        return new RecordValue(keys, values, false);
+    }
+
+    private static List<Value> sampleValues() {
+        List<Value> values = new ArrayList<>();
+        values.add(IntValue.gen(0));
+        values.add(IntValue.gen(-1));
+        values.add(IntValue.gen(Integer.MIN_VALUE));
+        values.add(IntValue.gen(Integer.MAX_VALUE));
+        values.add(new BoolValue(true));
+        values.add(new StringValue("héllo \"world\""));
+        values.add(new TupleValue(new Value[0]));
+        values.add(new TupleValue(new Value[]{IntValue.gen(1), new StringValue("a"), new BoolValue(false)}));
+        values.add(record(new String[]{"term", "log"}, IntValue.gen(3),
+                new TupleValue(new Value[]{record(new String[]{"cmd"}, new StringValue("x"))})));
+        // a sequence is written as an array, any other function as an object
+        values.add(new FcnRcdValue(new Value[]{IntValue.gen(1), IntValue.gen(2)},
+                new Value[]{new StringValue("p"), new StringValue("q")}, true));
+        values.add(new FcnRcdValue(new Value[]{new StringValue("n1"), IntValue.gen(7)},
+                new Value[]{new SetEnumValue(new Value[]{IntValue.gen(1), IntValue.gen(2)}, true), IntValue.gen(0)}, true));
+        values.add(new SetEnumValue(new Value[0], true));
+        return values;
+    }
+
+    private static String toJson(Value value) {
+        try (JSONWriter jsonWriter = JSONWriter.ofUTF8()) {
+            FastJsonSerializer.write(jsonWriter, value);
+            return jsonWriter.toString();
+        }
+    }
+
+    @Test
+    void binaryValuesReadBackAsTheSameJson() throws IOException {
+        List<Value> values = sampleValues();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryWriter writer = new BinaryWriter(bytes)) {
+            for (int i = 0; i < values.size(); i++) {
+                writer.startRecord(i);
+                BinarySerializer.write(writer, values.get(i));
+                writer.endRecord();
+            }
+        }
+
+        try (BinaryReader reader = new BinaryReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (int i = 0; i < values.size(); i++) {
+                assertTrue(reader.nextRecord());
+                assertEquals(i, reader.getRecordId());
+                String expected = toJson(values.get(i));
+                try (JSONWriter jsonWriter = JSONWriter.ofUTF8()) {
+                    reader.writeValue(jsonWriter);
+                    assertEquals(expected, jsonWriter.toString());
+                }
+                assertEquals(JSON.toJSONString(FastJsonSerializer.serialize(values.get(i))),
+                        JSON.toJSONString(reader.readValue()));
+                assertEquals(expected, JSON.toJSONString(reader.readValue()));
+            }
+            assertFalse(reader.nextRecord());
+        }
+    }
+
+    @Test
+    void convertedStateFileMatchesJsonStateWriterOutput(@TempDir Path dir) throws IOException {
+        Path binDir = dir.resolve("bin");
+        Path jsonDir = dir.resolve("json");
+        Path expectedFile = dir.resolve("expected.json");
+        Files.createDirectories(binDir.resolve("states"));
+
+        List<Value> values = sampleValues();
+        try (BinaryWriter writer = new BinaryWriter(Files.newOutputStream(binDir.resolve("states/001.bin")));
+             JsonStateWriter.JSONSparseArrayWriter jsonWriter = new JsonStateWriter.JSONSparseArrayWriter(expectedFile)) {
+            for (int id = 0; id < 1000; id++) {
+                RecordValue state = record(new String[]{"x", "y"}, values.get(id % values.size()), IntValue.gen(id));
+                writer.startRecord(id);
+                writer.startObject(state.names.length);
+                for (int i = 0; i < state.names.length; i++) {
+                    writer.writeName(state.names[i].toString());
+                    BinarySerializer.write(writer, state.values[i]);
+                }
+                writer.endRecord();
+
+                int stateId = id;
+                jsonWriter.write(w -> {
+                    w.writeName(Integer.toString(stateId));
+                    w.writeColon();
+                    w.startObject();
+                    for (int i = 0; i < state.names.length; i++) {
+                        w.writeName(state.names[i].toString());
+                        w.writeColon();
+                        FastJsonSerializer.write(w, state.values[i]);
+                    }
+                    w.endObject();
+                });
+            }
+        }
+        Files.writeString(binDir.resolve("meta.json"), "{\"format\":\"binary\",\"state_count\":1000,"
+                + "\"state_files\":[\"states/001.bin\"],\"action_files\":[],\"execution_files\":[]}");
+
+        BinaryToJsonConverter.convert(binDir, jsonDir);
+
+        assertEquals(Files.readString(expectedFile), Files.readString(jsonDir.resolve("states/001.json")));
+        assertEquals("[\"states/001.json\"]",
+                JSON.parseObject(Files.readString(jsonDir.resolve("meta.json"))).getJSONArray("state_files").toString());
+    }
+
+    @Test
+    void longIntArraysAreSplitIntoBoundedRecords(@TempDir Path dir) throws IOException {
+        int length = 3 * BinaryWriter.INT_ARRAY_CHUNK_SIZE + 5;
+        Path binDir = dir.resolve("bin");
+        Files.createDirectories(binDir.resolve("executions"));
+        try (BinaryWriter writer = new BinaryWriter(Files.newOutputStream(binDir.resolve("executions/001.bin")))) {
+            writer.startRecord(0);
+            writer.startIntArray();
+            for (int i = 0; i < length; i++) {
+                writer.writeIntArrayElement(i * 1000);
+            }
+            writer.endIntArray();
+            writer.endRecord();
+
+            writer.startRecord(1);
+            writer.startIntArray();
+            writer.endIntArray();
+            writer.endRecord();
+
+            // exactly one full chunk
+            writer.startRecord(2);
+            writer.startIntArray();
+            for (int i = 0; i < BinaryWriter.INT_ARRAY_CHUNK_SIZE; i++) {
+                writer.writeIntArrayElement(i);
+            }
+            writer.endIntArray();
+            writer.endRecord();
+        }
+
+        try (BinaryReader reader = new BinaryReader(binDir.resolve("executions/001.bin"))) {
+            assertTrue(reader.nextRecord());
+            JSONArray path = (JSONArray) reader.readValue();
+            assertEquals(length, path.size());
+            for (int i = 0; i < length; i++) {
+                assertEquals(i * 1000, path.getIntValue(i));
+            }
+            assertTrue(reader.nextRecord());
+            assertEquals(1, reader.getRecordId());
+            assertEquals(0, ((JSONArray) reader.readValue()).size());
+            assertTrue(reader.nextRecord());
+            assertEquals(BinaryWriter.INT_ARRAY_CHUNK_SIZE, ((JSONArray) reader.readValue()).size());
+            assertFalse(reader.nextRecord());
+        }
+
+        Files.writeString(binDir.resolve("meta.json"), "{\"format\":\"binary\",\"state_files\":[],"
+                + "\"action_files\":[],\"execution_files\":[\"executions/001.bin\"]}");
+        BinaryToJsonConverter.convert(binDir, dir.resolve("json"));
+        JSONArray paths = JSON.parseArray(Files.readString(dir.resolve("json/executions/001.json")));
+        assertEquals(3, paths.size());
+        assertEquals(length, paths.getJSONArray(0).size());
+        assertEquals((length - 1) * 1000, paths.getJSONArray(0).getIntValue(length - 1));
+        assertEquals(0, paths.getJSONArray(1).size());
+        assertEquals(BinaryWriter.INT_ARRAY_CHUNK_SIZE, paths.getJSONArray(2).size());
+    }
+
+    // states of a Raft-like spec: a few small records with repeated keys and string constants
+    @Test
+    void binaryStatesAreSmallerThanJson() throws IOException {
+        Random random = new Random(1);
+        String[] servers = {"s1", "s2", "s3"};
+        String[] roles = {"Follower", "Candidate", "Leader"};
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        long jsonSize = 0;
+        try (BinaryWriter writer = new BinaryWriter(binary)) {
+            for (int id = 0; id < 10_000; id++) {
+                Value[] serverStates = new Value[servers.length];
+                for (int s = 0; s < servers.length; s++) {
+                    Value[] log = new Value[random.nextInt(4)];
+                    for (int i = 0; i < log.length; i++) {
+                        log[i] = record(new String[]{"term", "value"},
+                                IntValue.gen(1 + random.nextInt(3)), new StringValue("v" + random.nextInt(2)));
+                    }
+                    serverStates[s] = record(new String[]{"currentTerm", "state", "votedFor", "log", "commitIndex"},
+                            IntValue.gen(1 + random.nextInt(3)), new StringValue(roles[random.nextInt(3)]),
+                            new StringValue(servers[random.nextInt(3)]), new TupleValue(log),
+                            IntValue.gen(random.nextInt(log.length + 1)));
+                }
+                Value state = new FcnRcdValue(new Value[]{new StringValue("s1"), new StringValue("s2"),
+                        new StringValue("s3")}, serverStates, true);
+
+                writer.startRecord(id);
+                BinarySerializer.write(writer, state);
+                writer.endRecord();
+                jsonSize += ("\"" + id + "\":").length() + toJson(state).length() + 1;
+            }
+        }
+        double ratio = (double) jsonSize / binary.size();
+        assertTrue(ratio >= 3, "binary export is only " + ratio + "x smaller than JSON");
+    }
+}
@@ -0,0 +1,101 @@
+package tlc2.util;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonExportReaderTest {
+    private static final int STATES = 20_000;
+    // an unsigned fingerprint that does not fit in a signed long
+    private static final String ROOT_REF = "fedcba9876543210";
+    private static final String LEAF_REF = "1f";
+
+    private static String ref(String fp) {
+        return "{\"$ref\":\"" + fp + "\"}";
+    }
+
+    private static void writeEntry(JsonStateWriter.JSONSparseArrayWriter writer, String key, String json) {
+        writer.write(w -> {
+            w.writeName(key);
+            w.writeColon();
+            w.writeRaw(json);
+        });
+    }
+
+    // every hundredth state is written in full and refers to the value table, the others are deltas against their predecessor
+    private static Path writeExport(Path dir, String extension) throws IOException {
+        Files.createDirectories(dir.resolve("states"));
+        Files.createDirectories(dir.resolve("values"));
+        try (JsonStateWriter.JSONSparseArrayWriter first = new JsonStateWriter.JSONSparseArrayWriter(dir.resolve("states/001" + extension));
+             JsonStateWriter.JSONSparseArrayWriter second = new JsonStateWriter.JSONSparseArrayWriter(dir.resolve("states/002" + extension));
+             JsonStateWriter.JSONSparseArrayWriter values = new JsonStateWriter.JSONSparseArrayWriter(dir.resolve("values/001" + extension))) {
+            for (int id = 0; id < STATES; id++) {
+                String fields = "\"y\":" + id + ",\"name\":\"s" + id * 7919 + "\"";
+                writeEntry(id % 2 == 0 ? first : second, Integer.toString(id), id % 100 == 0
+                        ? "{\"x\":" + ref(ROOT_REF) + "," + fields + "}"
+                        : "{\"$parent\":" + (id - 1) + "," + fields + "}");
+            }
+            writeEntry(values, ROOT_REF, "{\"a\":[" + ref(LEAF_REF) + ",2],\"b\":true}");
+            writeEntry(values, LEAF_REF, "\"leaf\"");
+            // evicted values are written again
+            writeEntry(values, ROOT_REF, "{\"a\":[" + ref(LEAF_REF) + ",2],\"b\":true}");
+        }
+        Files.writeString(dir.resolve("meta.json"), "{\"state_count\":" + STATES
+                + ",\"state_files\":[\"states/001" + extension + "\",\"states/002" + extension + "\"]"
+                + ",\"value_files\":[\"values/001" + extension + "\"]}");
+        return dir;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {".json", ".json.lz4"})
+    void reconstructsStatesFromDeltasAndReferences(String extension, @TempDir Path dir) throws IOException {
+        try (JsonExportReader reader = new JsonExportReader(writeExport(dir, extension))) {
+            assertEquals(STATES, reader.getStateCount());
+            JSONObject x = JSON.parseObject("{\"a\":[\"leaf\",2],\"b\":true}");
+            for (int id : new int[]{0, 1, 2, 4095, 10_000, STATES - 2, STATES - 1, 17}) {
+                JSONObject state = reader.getState(id);
+                assertEquals(x, state.get("x"));
+                assertEquals(id, state.getIntValue("y"));
+                assertEquals("s" + id * 7919, state.getString("name"));
+                assertEquals(3, state.size());
+            }
+            assertThrows(IllegalArgumentException.class, () -> reader.getState(STATES));
+        }
+    }
+
+    @Test
+    void readsHandWrittenJson(@TempDir Path dir) throws IOException {
+        Files.createDirectories(dir.resolve("states"));
+        Files.writeString(dir.resolve("states/001.json"), "{ \"0\" : {\"s\": \"a\\\"}]b\", \"n\": -1.5e3 , \"t\":true} ,\n"
+                + "  \"2\":{\"$parent\":0,\"n\":null,\"r\":{\"$ref\":\"ab\"}}\n}\n");
+        Files.writeString(dir.resolve("values.json"), "{\"a\\u0062\": [ {}, [] ] }");
+        Files.writeString(dir.resolve("meta.json"),
+                "{\"state_count\":3,\"state_files\":[\"states/001.json\"],\"value_files\":[\"values.json\"]}");
+
+        try (JsonExportReader reader = new JsonExportReader(dir)) {
+            assertEquals(JSON.parseObject("{\"s\":\"a\\\"}]b\",\"n\":-1.5e3,\"t\":true}"), reader.getState(0));
+            assertEquals(JSON.parseObject("{\"s\":\"a\\\"}]b\",\"n\":null,\"t\":true,\"r\":[{},[]]}"), reader.getState(2));
+            assertThrows(IllegalArgumentException.class, () -> reader.getState(1));
+        }
+    }
+
+    @Test
+    void rejectsUnknownReferences(@TempDir Path dir) throws IOException {
+        Files.writeString(dir.resolve("states.json"), "{\"0\":{\"v\":{\"$ref\":\"42\"}}}");
+        Files.writeString(dir.resolve("meta.json"), "{\"state_count\":1,\"state_files\":[\"states.json\"]}");
+
+        try (JsonExportReader reader = new JsonExportReader(dir)) {
+            assertThrows(IllegalStateException.class, () -> reader.getState(0));
+        }
+    }
+}